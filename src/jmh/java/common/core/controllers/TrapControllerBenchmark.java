@@ -0,0 +1,48 @@
+package common.core.controllers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wpi.first.math.trajectory.TrapezoidProfile;
+
+/**
+ * Measures {@link TrapController#calculate(double)} following a profile to a setpoint and back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TrapControllerBenchmark {
+
+    @Param({"false", "true"})
+    public boolean continuous;
+
+    private TrapController controller;
+    private double measurement;
+    private int cycle;
+
+    @Setup
+    public void setup() {
+        controller = new TrapController(new PIDFFConfig(0.1, 0, 0.01, 0.2, 0.5, 0.05, 0.3), new TrapezoidProfile.Constraints(360, 720));
+        if (continuous) controller.enableContinuousInput(-180, 180);
+        controller.setSetpoint(90);
+        measurement = 0;
+        cycle = 0;
+    }
+
+    @Benchmark
+    public double calculate() {
+        // Swap the goal every second so the profile keeps accelerating and cruising
+        if (++cycle % 50 == 0) controller.setSetpoint(cycle % 100 == 0 ? 90 : -90);
+        final double output = controller.calculate(measurement);
+        measurement += output * 0.02;
+        return output;
+    }
+}
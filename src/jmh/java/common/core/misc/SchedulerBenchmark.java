@@ -0,0 +1,62 @@
+package common.core.misc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link NAR_Robot}'s callback dispatch, one simulated millisecond per operation.
+ * <p>Drives the {@link TimingWheel} the same way the main loop does, without the HAL Notifier.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SchedulerBenchmark {
+
+    @Param({"8", "64"})
+    public int callbacks;
+
+    private TimingWheel wheel;
+    private long nowUs;
+    private int runs;
+
+    @Setup
+    public void setup() {
+        wheel = new TimingWheel();
+        nowUs = 0;
+        final long[] periodsUs = {5000, 10000, 20000, 20000, 20000, 100000, 250000, 1000000};
+        for (int i = 0; i < callbacks; i++) {
+            final Callback callback = new Callback("Callback" + i, () -> runs++, 0, periodsUs[i % periodsUs.length], (i * 1000) % 20000, 0);
+            if (i % 4 == 3) callback.withPriority(NAR_Robot.Priority.LOW, 0.0005);
+            wheel.register(callback);
+        }
+    }
+
+    @Benchmark
+    public void dispatch(Blackhole bh) {
+        nowUs += TimingWheel.TICK_US;
+        bh.consume(wheel.nextExpiration());
+        Callback callback;
+        while ((callback = wheel.poll(nowUs)) != null) {
+            if (callback.shouldRun(nowUs)) callback.func.run();
+            callback.advance(nowUs, true);
+            wheel.insert(callback);
+        }
+        bh.consume(runs);
+    }
+
+    @Benchmark
+    public void recordRuntime(Blackhole bh) {
+        final Callback callback = wheel.get(0);
+        callback.record(12345 + (nowUs++ & 1023));
+        bh.consume(callback.averageNs);
+    }
+}
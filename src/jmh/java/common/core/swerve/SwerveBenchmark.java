@@ -0,0 +1,58 @@
+package common.core.swerve;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Measures the math {@link SwerveBase#drive(ChassisSpeeds)} runs every loop.
+ * <p>SwerveBase itself can't be built without its modules' CAN devices, so this runs the same
+ * steps drive does up to handing the states to the modules.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SwerveBenchmark {
+
+    private SwerveDriveKinematics kinematics;
+    private Pose2d transform;
+    private double heading;
+
+    @Setup
+    public void setup() {
+        kinematics = new SwerveDriveKinematics(
+            new Translation2d(0.3, 0.3), new Translation2d(0.3, -0.3),
+            new Translation2d(-0.3, 0.3), new Translation2d(-0.3, -0.3));
+        transform = new Pose2d(0.04, 0.02, Rotation2d.fromDegrees(2));
+        heading = 0;
+    }
+
+    @Benchmark
+    public Twist2d poseLog() {
+        return SwerveBase.PoseLog(transform);
+    }
+
+    @Benchmark
+    public SwerveModuleState[] drive() {
+        heading += 0.5;
+        ChassisSpeeds velocity = ChassisSpeeds.fromFieldRelativeSpeeds(3.0, 1.5, 2.0, Rotation2d.fromDegrees(heading));
+        velocity = SwerveBase.correctVelocity(velocity);
+        final SwerveModuleState[] states = kinematics.toSwerveModuleStates(velocity);
+        SwerveDriveKinematics.desaturateWheelSpeeds(states, 4.5);
+        return states;
+    }
+}
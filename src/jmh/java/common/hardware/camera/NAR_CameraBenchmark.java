@@ -0,0 +1,91 @@
+package common.hardware.camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform2d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
+
+/**
+ * Measures {@link NAR_Camera#update()}, the pose estimate from one frame of AprilTags.
+ * <p>The camera returns a fixed frame instead of reading PhotonVision over NetworkTables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NAR_CameraBenchmark {
+
+    /**
+     * Camera that sees the same tags every frame.
+     */
+    static class BenchmarkCamera extends NAR_Camera {
+        PhotonPipelineResult frame;
+
+        BenchmarkCamera(Camera camera) {
+            super(camera);
+        }
+
+        @Override
+        public PhotonPipelineResult getLatestResult() {
+            return frame;
+        }
+    }
+
+    @Param({"1", "4"})
+    public int tags;
+
+    @Param({"false", "true"})
+    public boolean multipleTargets;
+
+    private BenchmarkCamera camera;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        HAL.initialize(500, 0);
+        blackhole = bh;
+
+        final HashMap<Integer, Pose2d> aprilTags = new HashMap<Integer, Pose2d>();
+        final List<PhotonTrackedTarget> targets = new ArrayList<PhotonTrackedTarget>();
+        for (int id = 1; id <= tags; id++) {
+            aprilTags.put(id, new Pose2d(15.5, 1.0 + id, Rotation2d.fromDegrees(180)));
+            final Transform3d cameraToTarget = new Transform3d(new Translation3d(2.0 + 0.1 * id, 0.2 * id, 0.5), new Rotation3d(0, 0, Math.PI - 0.05));
+            final List<TargetCorner> corners = Collections.nCopies(4, new TargetCorner(0, 0));
+            targets.add(new PhotonTrackedTarget(2.0, 1.0, 0.5, 0, id, cameraToTarget, cameraToTarget, 0.1, corners, corners));
+        }
+
+        NAR_Camera.setResources(() -> 0, (pose, time) -> blackhole.consume(pose), aprilTags, Pose2d::new);
+        NAR_Camera.setThresholds(30, 5, 0.5, multipleTargets);
+
+        camera = new BenchmarkCamera(new Camera("Benchmark", true, new Transform2d(new Translation2d(0.3, 0), new Rotation2d()), 0));
+        camera.frame = new PhotonPipelineResult(20, targets);
+        camera.frame.setTimestampSeconds(1.0);
+    }
+
+    @Benchmark
+    public void update() {
+        camera.update();
+    }
+}
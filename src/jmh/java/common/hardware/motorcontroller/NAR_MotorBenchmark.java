@@ -0,0 +1,133 @@
+package common.hardware.motorcontroller;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import common.hardware.motorcontroller.NAR_Motor.Control;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.motorcontrol.MotorController;
+
+/**
+ * Measures {@link NAR_Motor#set(double, Control)} in each control mode, with the motor
+ * controller itself stubbed out so only the library's own work is timed.
+ * <p>Needs the desktop HAL, NAR_Motor schedules its followers callback on {@link common.core.misc.NAR_Robot}
+ * when the class loads. Its inputs are only stored with {@link common.core.misc.NAR_Robot#addInputs(Runnable)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NAR_MotorBenchmark {
+
+    /**
+     * Motor that only remembers what it was last told.
+     */
+    static class BenchmarkMotor extends NAR_Motor {
+        double output;
+        double position;
+
+        BenchmarkMotor() {
+            super(0);
+        }
+
+        @Override
+        public void setInverted(boolean inverted) {}
+
+        @Override
+        protected void setPercentOutput(double speed) {
+            output = speed;
+        }
+
+        @Override
+        protected void setVelocity(double rpm, double feedForward) {
+            output = rpm + feedForward;
+        }
+
+        @Override
+        protected void setPosition(double rotations, double feedForward) {
+            output = rotations + feedForward;
+        }
+
+        @Override
+        protected void resetRawPosition(double rotations) {
+            position = rotations;
+        }
+
+        @Override
+        public double getAppliedOutput() {
+            return output;
+        }
+
+        @Override
+        public double getStallCurrent() {
+            return 0;
+        }
+
+        @Override
+        protected double getRawPosition() {
+            return position;
+        }
+
+        @Override
+        protected double getRawVelocity() {
+            return 0;
+        }
+
+        @Override
+        protected void setBrakeMode() {}
+
+        @Override
+        protected void setCoastMode() {}
+
+        @Override
+        public void enableVoltageCompensation(double volts) {}
+
+        @Override
+        public void setCurrentLimit(int limit) {}
+
+        @Override
+        public void setDefaultStatusFrames() {}
+
+        @Override
+        public MotorController getMotor() {
+            return null;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    @Param({"PercentOutput", "Velocity", "Position"})
+    public Control mode;
+
+    @Param({"false", "true"})
+    public boolean continuous;
+
+    private BenchmarkMotor motor;
+    private double value;
+
+    @Setup
+    public void setup() {
+        HAL.initialize(500, 0);
+        motor = new BenchmarkMotor();
+        motor.setUnitConversionFactor(360);
+        motor.setTimeConversionFactor(60);
+        if (continuous) motor.enableContinuousInput(-180, 180);
+        value = 0;
+    }
+
+    @Benchmark
+    public double set() {
+        // A new value every call, set returns early when nothing changed
+        value = value > 0.9 ? -0.9 : value + 0.001;
+        motor.set(value * 180, mode, 0.1);
+        return motor.output;
+    }
+}
@@ -0,0 +1,65 @@
+package common.utility.narwhaldashboard;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures serializing one NarwhalDashboard update into JSON and into the binary format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NarwhalDashboardBenchmark {
+
+    @Param({"10", "50"})
+    public int updates;
+
+    private final ArrayList<String> keys = new ArrayList<String>();
+    private Object[] values;
+    private final BinaryFrame frame = new BinaryFrame(4096);
+
+    @Setup
+    public void setup() {
+        keys.clear();
+        values = new Object[updates];
+        for (int i = 0; i < updates; i++) {
+            keys.add("update" + i);
+            // The mix a robot sends: numbers, flags and strings
+            switch (i % 3) {
+                case 0:
+                    values[i] = i * 1.2345;
+                    break;
+                case 1:
+                    values[i] = i % 2 == 0;
+                    break;
+                default:
+                    values[i] = "auto" + i;
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public String toJSON() {
+        return NarwhalDashboard.toJSON(keys, values);
+    }
+
+    @Benchmark
+    public ByteBuffer toBinary() {
+        frame.begin(true);
+        for (int i = 0; i < updates; i++) {
+            frame.putObject(i, values[i]);
+        }
+        return frame.finish();
+    }
+}
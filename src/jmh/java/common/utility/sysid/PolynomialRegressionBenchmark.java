@@ -0,0 +1,52 @@
+package common.utility.sysid;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures fitting and evaluating a {@link PolynomialRegression}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PolynomialRegressionBenchmark {
+
+    @Param({"50", "500"})
+    public int points;
+
+    @Param({"1", "3"})
+    public int degree;
+
+    private double[] x;
+    private double[] y;
+    private PolynomialRegression fit;
+
+    @Setup
+    public void setup() {
+        x = new double[points];
+        y = new double[points];
+        for (int i = 0; i < points; i++) {
+            x[i] = i * 0.1;
+            y[i] = 0.5 + 1.2 * x[i] - 0.03 * x[i] * x[i] + Math.sin(i) * 0.01;
+        }
+        fit = new PolynomialRegression(x, y, degree);
+    }
+
+    @Benchmark
+    public PolynomialRegression fit() {
+        return new PolynomialRegression(x, y, degree);
+    }
+
+    @Benchmark
+    public double predict() {
+        return fit.predict(2.5);
+    }
+}
@@ -1,6 +1,8 @@
 package common.core.controllers;
 
 import java.util.function.DoubleSupplier;
+
+import common.core.misc.NAR_Robot;
 import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.controller.ProfiledPIDController;
 import edu.wpi.first.math.trajectory.TrapezoidProfile;
@@ -13,6 +15,27 @@ import edu.wpi.first.util.sendable.SendableBuilder;
  * @author Mason Lam
  */
 public class TrapController extends ControllerBase {
+
+    private static boolean warmUpAdded = false;
+
+    /**
+     * Warms up the profile and PID math with {@link NAR_Robot#addWarmUp(String, Runnable)} while the
+     * robot is disabled, using a controller that isn't connected to any motors. Call once from the robot's constructor.
+     */
+    public static synchronized void addWarmUp() {
+        if (warmUpAdded) return;
+        warmUpAdded = true;
+        final TrapController warmUp = new TrapController(new PIDFFConfig(0.1, 0, 0.01, 0.1, 0.5, 0.05, 0.1), new TrapezoidProfile.Constraints(360, 720));
+        final double[] measurement = new double[1];
+        NAR_Robot.addWarmUp("TrapController", ()-> {
+            // Swings between two goals
+            warmUp.setSetpoint(warmUp.getSetpoint() > 0 ? -90 : 90);
+            for (int i = 0; i < 50; i++) {
+                measurement[0] += warmUp.calculate(measurement[0]) * 0.02;
+            }
+        });
+    }
+
     private DoubleSupplier systemVelocity;
 
     private TrapezoidProfile.State setpoint = new TrapezoidProfile.State();
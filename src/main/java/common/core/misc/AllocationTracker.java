@@ -0,0 +1,107 @@
+package common.core.misc;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Measures how many bytes the robot's main thread allocates on the heap, used by
+ * {@link NAR_Robot#setAllocationTracking(boolean)}.
+ * <p>Reading the counter goes through HotSpot's {@link ThreadMXBean}, which is cheap for the
+ * current thread but not free, so the cost of a measurement is calibrated once and subtracted from
+ * every sample.
+ */
+final class AllocationTracker {
+
+    /**
+     * Bytes allocated by a piece of code, reset every time it is published.
+     */
+    static final class Stats {
+        private long total = 0;
+        private long runs = 0;
+        private long max = 0;
+
+        /**
+         * Records a sample.
+         * @param bytes Bytes allocated by one run.
+         */
+        void record(long bytes) {
+            total += bytes;
+            runs++;
+            if (bytes > max) max = bytes;
+        }
+
+        /**
+         * Returns the average bytes allocated per run since the last reset.
+         * @return Average bytes, 0 if nothing ran.
+         */
+        double average() {
+            return runs == 0 ? 0 : (double) total / runs;
+        }
+
+        /**
+         * Returns the most bytes allocated by one run since the last reset.
+         * @return Largest sample in bytes.
+         */
+        long max() {
+            return max;
+        }
+
+        /**
+         * Clears all samples.
+         */
+        void reset() {
+            total = 0;
+            runs = 0;
+            max = 0;
+        }
+    }
+
+    private final ThreadMXBean bean;
+    private final long threadId;
+    private long overhead = 0;
+
+    private AllocationTracker(ThreadMXBean bean, Thread thread) {
+        this.bean = bean;
+        threadId = thread.getId();
+    }
+
+    /**
+     * Creates a tracker for the current thread.
+     * @return The tracker, or null if the JVM can't measure thread allocations.
+     */
+    static AllocationTracker forCurrentThread() {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof ThreadMXBean)) return null;
+        final ThreadMXBean bean = (ThreadMXBean) threads;
+        if (!bean.isThreadAllocatedMemorySupported()) return null;
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        final AllocationTracker tracker = new AllocationTracker(bean, Thread.currentThread());
+        // Whatever reading the counter allocates itself, the smallest of a few empty measurements
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 8; i++) {
+            final long start = tracker.allocatedBytes();
+            overhead = Math.min(overhead, tracker.allocatedBytes() - start);
+        }
+        tracker.overhead = Math.max(overhead, 0);
+        return tracker;
+    }
+
+    /**
+     * Returns the total bytes the thread has allocated so far.
+     * @return Bytes allocated.
+     */
+    long allocatedBytes() {
+        return bean.getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * Returns the bytes allocated since an earlier reading, not counting the measurement itself.
+     * @param startBytes An earlier result of {@link #allocatedBytes()}.
+     * @return Bytes allocated in between.
+     */
+    long since(long startBytes) {
+        return Math.max(allocatedBytes() - startBytes - overhead, 0);
+    }
+}
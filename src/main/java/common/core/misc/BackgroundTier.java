@@ -0,0 +1,102 @@
+package common.core.misc;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import common.utility.Log;
+
+/**
+ * Execution tier for periodic work that doesn't need to run on the robot's main thread, like
+ * serializing and publishing telemetry.
+ * <p>Each task is split in two. The snapshot runs on the main thread and copies whatever the task
+ * needs into primitive fields, then the publish runs on a single background thread. A snapshot is
+ * skipped while the previous publish is still running, so the background thread never falls
+ * behind and the two halves never touch the snapshot at the same time.
+ * <p>The thread runs at normal priority, Java thread priorities are ignored by the JVM on Linux. It
+ * only stops competing with the main loop when {@link NAR_Robot#setRealTime(int, int, int)} puts the
+ * main thread at real-time priority and moves this thread to the auxiliary core.
+ */
+final class BackgroundTier implements Runnable {
+
+    /**
+     * A snapshot and publish pair.
+     */
+    static final class Task {
+        final String name;
+        final BooleanSupplier snapshot;
+        final Runnable publish;
+        final String skippedKey;
+
+        // Set by the main thread after a snapshot, cleared by the background thread after publishing
+        volatile boolean pending = false;
+        long skipped = 0;
+
+        Task(String name, BooleanSupplier snapshot, Runnable publish) {
+            this.name = name;
+            this.snapshot = snapshot;
+            this.publish = publish;
+            skippedKey = "NAR_Robot/Background/" + name + "/Skipped";
+        }
+    }
+
+    private volatile Task[] tasks = new Task[0];
+    private Thread thread;
+
+    /**
+     * Adds a task, starting the background thread if needed.
+     * @param task The task to add.
+     */
+    synchronized void add(Task task) {
+        final Task[] grown = Arrays.copyOf(tasks, tasks.length + 1);
+        grown[tasks.length] = task;
+        tasks = grown;
+
+        if (thread == null) {
+            thread = new Thread(this, "NAR_Background");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Runs a task's snapshot and hands it to the background thread. Call from the main thread.
+     * @param task The task to run.
+     */
+    void submit(Task task) {
+        if (task.pending) {
+            task.skipped++;
+            return;
+        }
+        if (!task.snapshot.getAsBoolean()) return;
+        task.pending = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Returns the registered tasks.
+     * @return Array of tasks, do not modify.
+     */
+    Task[] tasks() {
+        return tasks;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            boolean published = false;
+            for (final Task task : tasks) {
+                if (!task.pending) continue;
+                try {
+                    task.publish.run();
+                } catch (RuntimeException e) {
+                    Log.recoverable("NAR_Robot", "Background task " + task.name + " threw " + e);
+                } finally {
+                    task.pending = false;
+                }
+                published = true;
+            }
+            if (!published) LockSupport.park(this);
+        }
+    }
+}
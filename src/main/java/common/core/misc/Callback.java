@@ -0,0 +1,187 @@
+package common.core.misc;
+
+import common.core.misc.NAR_Robot.OverrunPolicy;
+import common.core.misc.NAR_Robot.Priority;
+
+/**
+ * Handle to a callback scheduled on {@link NAR_Robot}'s Notifier, returned by
+ * {@link NAR_Robot#addPeriodic(String, Runnable, double)} to configure how it is scheduled.
+ * <p>Deadlines are kept as integer FPGA microseconds so the scheduler never converts or rounds
+ * while dispatching. Instances double as the nodes of {@link TimingWheel}'s slot lists, so
+ * rescheduling a callback never allocates.
+ */
+public final class Callback {
+    final String name;
+    final Runnable func;
+    final long periodUs;
+    long offsetUs;
+    long expirationUs;
+    boolean autoPhase = false;
+
+    OverrunPolicy overrunPolicy = OverrunPolicy.COALESCE;
+    long skipped = 0;
+    long coalesced = 0;
+
+    Priority priority = Priority.HIGH;
+    long budgetUs = 0;
+    int deferrals = 0;
+    long deferred = 0;
+    // Deadline the callback was deferred from, keeps it on its own phase afterwards
+    private long scheduledUs;
+
+    // Profiling, reset every time it is published
+    final LatencyHistogram runtime = new LatencyHistogram();
+    long overruns = 0;
+    // Smoothed runtime, not reset, used to pick automatic phase offsets
+    double averageNs = 0;
+    // Only recorded while allocation tracking is enabled
+    final AllocationTracker.Stats allocations = new AllocationTracker.Stats();
+
+    // Logger keys built once so publishing doesn't concatenate strings
+    final String p50Key;
+    final String p99Key;
+    final String maxKey;
+    final String overrunKey;
+    final String skippedKey;
+    final String coalescedKey;
+    final String deferredKey;
+    final String phaseKey;
+    final String allocatedKey;
+    final String maxAllocatedKey;
+
+    // Intrusive TimingWheel bookkeeping
+    Callback next;
+    int slot = -1;
+
+    /**
+     * Construct a callback container.
+     *
+     * @param name Name the callback is profiled under.
+     * @param func The callback to run.
+     * @param startTimeUs The common starting point for all callback scheduling in microseconds.
+     * @param periodUs The period at which to run the callback in microseconds.
+     * @param offsetUs The offset from the common starting time in microseconds.
+     * @param nowUs The current FPGA time in microseconds.
+     */
+    Callback(String name, Runnable func, long startTimeUs, long periodUs, long offsetUs, long nowUs) {
+        this.name = name;
+        this.func = func;
+        this.periodUs = periodUs;
+        this.offsetUs = offsetUs;
+        this.expirationUs =
+            startTimeUs
+                + offsetUs
+                + Math.floorDiv(nowUs - startTimeUs, periodUs) * periodUs
+                + periodUs;
+
+        final String prefix = "NAR_Robot/Callbacks/" + name + "/";
+        p50Key = prefix + "P50Ms";
+        p99Key = prefix + "P99Ms";
+        maxKey = prefix + "MaxMs";
+        overrunKey = prefix + "Overruns";
+        skippedKey = prefix + "Skipped";
+        coalescedKey = prefix + "Coalesced";
+        deferredKey = prefix + "Deferred";
+        phaseKey = prefix + "PhaseMs";
+        allocatedKey = prefix + "AllocatedBytes";
+        maxAllocatedKey = prefix + "MaxAllocatedBytes";
+    }
+
+    /**
+     * Sets what happens when the callback falls more than a period behind, defaults to
+     * {@link OverrunPolicy#COALESCE}.
+     * @param policy The overrun policy.
+     * @return This callback, for chaining.
+     */
+    public Callback withOverrunPolicy(OverrunPolicy policy) {
+        overrunPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets the callback's priority and how much CPU time it is expected to need, defaults to
+     * {@link Priority#HIGH}. {@link Priority#LOW} callbacks are deferred to the next robot loop cycle
+     * when running them would push the current cycle past the load shedding threshold, see
+     * {@link NAR_Robot#setLoadShedding(double)}.
+     * @param priority The callback's priority.
+     * @param budgetSeconds Expected runtime of the callback in seconds.
+     * @return This callback, for chaining.
+     */
+    public Callback withPriority(Priority priority, double budgetSeconds) {
+        this.priority = priority;
+        budgetUs = Math.round(budgetSeconds * 1e6);
+        return this;
+    }
+
+    /**
+     * Returns the name the callback is profiled under.
+     * @return The callback's name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a runtime sample.
+     * @param elapsedNs How long the callback ran in nanoseconds.
+     */
+    void record(long elapsedNs) {
+        runtime.record(elapsedNs);
+        averageNs = averageNs == 0 ? elapsedNs : averageNs + (elapsedNs - averageNs) / 16;
+    }
+
+    /**
+     * Returns how many whole periods have passed since the deadline.
+     * @param nowUs The current time in microseconds.
+     * @return Number of periods missed, 0 if the callback is on time.
+     */
+    long missedPeriods(long nowUs) {
+        return Math.max(0, (nowUs - expirationUs) / periodUs);
+    }
+
+    /**
+     * Returns whether the callback should run or be skipped by its overrun policy.
+     * @param nowUs The current time in microseconds.
+     * @return True if the callback should run.
+     */
+    boolean shouldRun(long nowUs) {
+        return overrunPolicy != OverrunPolicy.SKIP || missedPeriods(nowUs) == 0;
+    }
+
+    /**
+     * Pushes the deadline back so a low priority callback runs later.
+     * @param untilUs The new deadline in microseconds.
+     */
+    void defer(long untilUs) {
+        if (deferrals == 0) scheduledUs = expirationUs;
+        expirationUs = untilUs;
+        deferrals++;
+        deferred++;
+    }
+
+    /**
+     * Advances the deadline according to the overrun policy.
+     * @param nowUs The time the callback was dispatched at in microseconds.
+     * @param ran Whether the callback ran for this deadline.
+     */
+    void advance(long nowUs, boolean ran) {
+        if (deferrals > 0) {
+            expirationUs = scheduledUs;
+            deferrals = 0;
+        }
+        final long missed = missedPeriods(nowUs);
+        switch (overrunPolicy) {
+            case BURST:
+                expirationUs += periodUs;
+                return;
+            case COALESCE:
+                coalesced += missed;
+                break;
+            case SKIP:
+                skipped += ran ? missed : missed + 1;
+                break;
+        }
+        // Jump to the first aligned deadline after now
+        expirationUs += (missed + 1) * periodUs;
+    }
+}
@@ -0,0 +1,175 @@
+package common.core.misc;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.RuntimeMXBean;
+import java.util.Arrays;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.littletonrobotics.junction.Logger;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+import common.utility.Log;
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * Logs every garbage collection pause and flags the robot loop cycles it overlapped.
+ * <p>The JVM reports collections on its own notification thread. Each pause is converted to FPGA
+ * time there and handed to the main thread through a fixed ring, which {@link #publish()} drains
+ * into the Logger under "NAR_Robot/GC" as arrays, one element per pause drained that cycle. The main
+ * thread also keeps the start and end of its last few cycles, so a pause can be matched against the
+ * cycles it ran over. An overrun cycle that overlapped a pause is reported on the console next to
+ * WPILib's loop overrun warning.
+ */
+final class GcMonitor implements NotificationListener {
+    private static final int EVENTS = 16;
+    private static final int CYCLES = 16;
+
+    // Written by the notification thread, read by the main thread after head is published
+    private final String[] collectors = new String[EVENTS];
+    private final long[] startUs = new long[EVENTS];
+    private final long[] durationUs = new long[EVENTS];
+    private final long[] heapBefore = new long[EVENTS];
+    private final long[] heapAfter = new long[EVENTS];
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile long dropped = 0;
+
+    // Only touched by the main thread
+    private final long[] cycleStartUs = new long[CYCLES];
+    private final long[] cycleEndUs = new long[CYCLES];
+    private int cycleIndex = 0;
+    private long count = 0;
+    private long totalPauseUs = 0;
+    private long overlappedCycles = 0;
+    private long overlappedOverruns = 0;
+    // Dropped count last recorded, -1 so the totals are recorded once at startup
+    private long publishedDropped = -1;
+
+    private final RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+    private final long periodUs;
+
+    /**
+     * Creates a monitor and subscribes to every collector that sends notifications.
+     * @param periodUs Period of the robot loop in microseconds, longer cycles count as overruns.
+     */
+    GcMonitor(long periodUs) {
+        this.periodUs = periodUs;
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(collector instanceof NotificationEmitter)) continue;
+            ((NotificationEmitter) collector).addNotificationListener(this,
+                notification -> GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()),
+                null);
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        final GcInfo gc = info.getGcInfo();
+
+        // GcInfo times are milliseconds since the JVM started, measure back from now on the FPGA clock
+        final long nowUs = RobotController.getFPGATime();
+        final long endUs = nowUs - (runtime.getUptime() - gc.getEndTime()) * 1000;
+
+        final long slot = head;
+        if (slot - tail >= EVENTS) {
+            dropped++;
+            return;
+        }
+        final int i = (int) (slot % EVENTS);
+        collectors[i] = info.getGcName();
+        durationUs[i] = gc.getDuration() * 1000;
+        startUs[i] = endUs - durationUs[i];
+        heapBefore[i] = used(gc.getMemoryUsageBeforeGc().values());
+        heapAfter[i] = used(gc.getMemoryUsageAfterGc().values());
+        head = slot + 1;
+    }
+
+    /**
+     * Remembers when a robot loop cycle ran. Call from the main thread.
+     * @param startUs FPGA time the cycle started in microseconds.
+     * @param endUs FPGA time the cycle ended in microseconds.
+     */
+    void recordCycle(long startUs, long endUs) {
+        cycleStartUs[cycleIndex] = startUs;
+        cycleEndUs[cycleIndex] = endUs;
+        cycleIndex = (cycleIndex + 1) % CYCLES;
+    }
+
+    /**
+     * Logs the pauses reported since the last call. Call from the main thread.
+     * <p>Nothing is recorded unless a pause was reported or dropped, so most cycles only read two fields.
+     */
+    void publish() {
+        final long end = head;
+        final long dropped = this.dropped;
+        if (end == tail && dropped == publishedDropped) return;
+
+        // Every pause drained this cycle is recorded, one array element each, so none overwrite another
+        final int pauses = (int) (end - tail);
+        if (pauses > 0) {
+            final String[] pauseCollectors = new String[pauses];
+            final double[] pauseStarts = new double[pauses];
+            final double[] pauseMs = new double[pauses];
+            final double[] pauseHeapBefore = new double[pauses];
+            final double[] pauseHeapAfter = new double[pauses];
+            final double[] overlapped = new double[pauses * CYCLES];
+            int overlaps = 0;
+
+            for (int p = 0; p < pauses; p++) {
+                final int i = (int) ((tail + p) % EVENTS);
+                final long pauseStartUs = startUs[i];
+                final long pauseEndUs = pauseStartUs + durationUs[i];
+
+                count++;
+                totalPauseUs += durationUs[i];
+                pauseCollectors[p] = collectors[i];
+                pauseStarts[p] = pauseStartUs / 1e6;
+                pauseMs[p] = durationUs[i] / 1e3;
+                pauseHeapBefore[p] = heapBefore[i] / 1e6;
+                pauseHeapAfter[p] = heapAfter[i] / 1e6;
+
+                for (int c = 0; c < CYCLES; c++) {
+                    if (cycleEndUs[c] == 0 || cycleStartUs[c] > pauseEndUs || cycleEndUs[c] < pauseStartUs) continue;
+                    overlappedCycles++;
+                    overlapped[overlaps++] = cycleStartUs[c] / 1e6;
+                    if (cycleEndUs[c] - cycleStartUs[c] > periodUs) {
+                        overlappedOverruns++;
+                        Log.info("NAR_Robot", "Loop overrun at %.3fs overlapped a %.1fms %s pause",
+                            cycleStartUs[c] / 1e6, durationUs[i] / 1e3, collectors[i]);
+                    }
+                }
+                collectors[i] = null;
+            }
+
+            Logger.recordOutput("NAR_Robot/GC/Collector", pauseCollectors);
+            Logger.recordOutput("NAR_Robot/GC/StartTimestamp", pauseStarts);
+            Logger.recordOutput("NAR_Robot/GC/PauseMs", pauseMs);
+            Logger.recordOutput("NAR_Robot/GC/HeapBeforeMB", pauseHeapBefore);
+            Logger.recordOutput("NAR_Robot/GC/HeapAfterMB", pauseHeapAfter);
+            Logger.recordOutput("NAR_Robot/GC/OverlappedCycleTimestamp", Arrays.copyOf(overlapped, overlaps));
+        }
+        tail = end;
+
+        Logger.recordOutput("NAR_Robot/GC/Count", count);
+        Logger.recordOutput("NAR_Robot/GC/TotalPauseMs", totalPauseUs / 1e3);
+        Logger.recordOutput("NAR_Robot/GC/OverlappedCycles", overlappedCycles);
+        Logger.recordOutput("NAR_Robot/GC/OverlappedOverruns", overlappedOverruns);
+        Logger.recordOutput("NAR_Robot/GC/Dropped", dropped);
+        publishedDropped = dropped;
+    }
+
+    private static long used(Iterable<MemoryUsage> pools) {
+        long used = 0;
+        for (final MemoryUsage pool : pools) used += pool.getUsed();
+        return used;
+    }
+}
@@ -0,0 +1,88 @@
+package common.core.misc;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size log-linear histogram of durations in nanoseconds.
+ * <p>Each power of two is split into 16 linear buckets, so any recorded value is reported within
+ * about 6% of its true value. The bucket array is allocated once and recording a sample never
+ * allocates, which keeps it safe to use inside the robot loop.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Covers up to 2^40 ns, about 18 minutes
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+    private final int[] counts = new int[BUCKETS];
+    private long total = 0;
+    private long max = 0;
+
+    /**
+     * Records a sample.
+     * @param valueNs Duration in nanoseconds, negative values are treated as 0.
+     */
+    void record(long valueNs) {
+        final long value = Math.max(valueNs, 0);
+        counts[index(value)]++;
+        total++;
+        if (value > max) max = value;
+    }
+
+    /**
+     * Returns the number of samples recorded since the last reset.
+     * @return Number of samples.
+     */
+    long count() {
+        return total;
+    }
+
+    /**
+     * Returns the largest sample recorded since the last reset.
+     * @return Largest sample in nanoseconds.
+     */
+    long max() {
+        return max;
+    }
+
+    /**
+     * Returns the value at a percentile.
+     * @param percentile Percentile from 0.0 to 1.0.
+     * @return Upper bound of the bucket holding the percentile in nanoseconds, 0 if empty.
+     */
+    long percentile(double percentile) {
+        if (total == 0) return 0;
+        final long target = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * Clears all samples.
+     */
+    void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        max = 0;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        final int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT && value >= (1L << MAX_EXPONENT)) return BUCKETS - 1;
+        final int sub = (int) ((value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1));
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_COUNT) return index;
+        final int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        final int sub = index % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,160 @@
+package common.core.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+
+import org.littletonrobotics.junction.LogDataReceiver;
+import org.littletonrobotics.junction.LogTable;
+import org.littletonrobotics.junction.Logger;
+import org.littletonrobotics.junction.wpilog.WPILOGWriter;
+
+import common.utility.Log;
+
+/**
+ * WPILOG receiver which picks where to write and keeps writing safely.
+ * <p>The first mounted drive with enough free space is used, falling back to the roboRIO's internal
+ * flash. Files are rotated once they reach {@link #kMaxFileBytes}, and logging stops once the drive
+ * has less than {@link #kMinFreeBytes} free. AdvantageKit already queues tables for its receiver thread
+ * and WPILib's DataLog already buffers them and writes in large blocks, so this only wraps
+ * {@link WPILOGWriter} and measures it.
+ */
+final class LogStorage implements LogDataReceiver {
+    static final String kInternalRoot = "/home/lvuser/logs";
+    static final long kMaxFileBytes = 256L << 20;
+    static final long kMinFreeBytes = 64L << 20;
+    // Tables between checks of the file size and free space, about a second
+    private static final int kCheckInterval = 50;
+
+    private final File root;
+    private final File folder;
+    private final String baseName;
+    private WPILOGWriter writer;
+    private File file;
+    private int part = 0;
+    private long closedBytes = 0;
+    private int tablesSinceCheck = 0;
+
+    private volatile long bytesWritten = 0;
+    private volatile boolean stopped = false;
+    private final LatencyHistogram putLatency = new LatencyHistogram();
+
+    /**
+     * Creates a receiver writing to the first usable drive.
+     * @param folderName Folder to put logs in on the drive.
+     * @param baseName File name without extension.
+     * @param drives Mount points to try in order before the internal flash.
+     */
+    LogStorage(String folderName, String baseName, String... drives) {
+        root = chooseRoot(drives);
+        folder = new File(root, folderName);
+        folder.mkdirs();
+        this.baseName = baseName;
+    }
+
+    /**
+     * Returns the first mounted, writable drive with enough space, or the internal flash.
+     */
+    private static File chooseRoot(String[] drives) {
+        final HashSet<String> mounts = mountPoints();
+        for (final String drive : drives) {
+            final File candidate = new File(drive);
+            // Without /proc/mounts, ie. in simulation, any existing folder counts as mounted
+            final boolean mounted = mounts == null ? candidate.isDirectory() : mounts.contains(drive);
+            if (mounted && candidate.canWrite() && candidate.getUsableSpace() >= kMinFreeBytes) return candidate;
+        }
+        Log.unusual("NAR_Robot", "No usable log drive, logging to " + kInternalRoot);
+        final File internal = new File(kInternalRoot);
+        internal.mkdirs();
+        return internal;
+    }
+
+    private static HashSet<String> mountPoints() {
+        try {
+            final List<String> lines = Files.readAllLines(Paths.get("/proc/mounts"));
+            final HashSet<String> mounts = new HashSet<String>();
+            for (final String line : lines) {
+                final String[] fields = line.split(" ");
+                if (fields.length > 1) mounts.add(fields[1]);
+            }
+            return mounts;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns where logs are written.
+     * @return Folder on the chosen drive.
+     */
+    File getFolder() {
+        return folder;
+    }
+
+    @Override
+    public void start() {
+        open();
+    }
+
+    @Override
+    public void end() {
+        if (!stopped) writer.end();
+    }
+
+    @Override
+    public void putTable(LogTable table) throws InterruptedException {
+        if (stopped) return;
+        final long startNs = System.nanoTime();
+        writer.putTable(table);
+        final long elapsedNs = System.nanoTime() - startNs;
+        synchronized (putLatency) {
+            putLatency.record(elapsedNs);
+        }
+        if (++tablesSinceCheck >= kCheckInterval) check();
+    }
+
+    private void open() {
+        file = new File(folder, baseName + (part == 0 ? "" : "_" + part) + ".wpilog");
+        writer = new WPILOGWriter(file.getPath());
+        writer.start();
+    }
+
+    /**
+     * Rotates the file if it is too big, and stops logging if the drive is almost full.
+     */
+    private void check() {
+        tablesSinceCheck = 0;
+        final long size = file.length();
+        bytesWritten = closedBytes + size;
+        if (folder.getUsableSpace() < kMinFreeBytes) {
+            writer.end();
+            stopped = true;
+            Log.recoverable("NAR_Robot", String.format("Stopped logging, less than %d MB free in %s", kMinFreeBytes >> 20, root));
+            return;
+        }
+        if (size >= kMaxFileBytes) {
+            writer.end();
+            closedBytes += size;
+            part++;
+            open();
+        }
+    }
+
+    /**
+     * Logs bytes written and the p50, p99 and max time to hand a table to the writer under
+     * "NAR_Robot/LogStorage", then resets the latencies. Called from the main thread.
+     */
+    void publish() {
+        Logger.recordOutput("NAR_Robot/LogStorage/BytesWritten", bytesWritten);
+        Logger.recordOutput("NAR_Robot/LogStorage/Stopped", stopped);
+        synchronized (putLatency) {
+            Logger.recordOutput("NAR_Robot/LogStorage/PutTable/P50Ms", putLatency.percentile(0.5) / 1e6);
+            Logger.recordOutput("NAR_Robot/LogStorage/PutTable/P99Ms", putLatency.percentile(0.99) / 1e6);
+            Logger.recordOutput("NAR_Robot/LogStorage/PutTable/MaxMs", putLatency.max() / 1e6);
+            putLatency.reset();
+        }
+    }
+}
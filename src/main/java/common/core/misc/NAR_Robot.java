@@ -1,21 +1,30 @@
 package common.core.misc;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.time.LocalDateTime;
-import java.util.PriorityQueue;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.function.BooleanSupplier;
 
 import org.littletonrobotics.junction.AutoLogOutputManager;
 import org.littletonrobotics.junction.Logger;
+import org.littletonrobotics.junction.wpilog.LogFileUtil;
+import org.littletonrobotics.junction.wpilog.WPILOGReader;
 import org.littletonrobotics.junction.wpilog.WPILOGWriter;
 
+import common.utility.Log;
 import edu.wpi.first.hal.DriverStationJNI;
 import edu.wpi.first.hal.HAL;
 import edu.wpi.first.hal.NotifierJNI;
 import edu.wpi.first.hal.FRCNetComm.tInstances;
 import edu.wpi.first.hal.FRCNetComm.tResourceType;
+import edu.wpi.first.hal.simulation.SimulatorJNI;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.IterativeRobotBase;
-import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.RobotController;
 
 /**
  * Team 3128's Robot class that includes advantageScope and addPeriodic
@@ -24,63 +33,87 @@ import edu.wpi.first.wpilibj.Timer;
  */
 public class NAR_Robot extends IterativeRobotBase {
 
-    @SuppressWarnings("MemberName")
-    static class Callback implements Comparable<Callback> {
-      public Runnable func;
-      public double period;
-      public double expirationTime;
-
-      /**
-       * Construct a callback container.
-       *
-       * @param func The callback to run.
-       * @param startTimeSeconds The common starting point for all callback scheduling in seconds.
-       * @param periodSeconds The period at which to run the callback in seconds.
-       * @param offsetSeconds The offset from the common starting time in seconds.
-       */
-      Callback(Runnable func, double startTimeSeconds, double periodSeconds, double offsetSeconds) {
-        this.func = func;
-        this.period = periodSeconds;
-        this.expirationTime =
-            startTimeSeconds
-                + offsetSeconds
-                + Math.floor((Timer.getFPGATimestamp() - startTimeSeconds) / this.period)
-                    * this.period
-                + this.period;
-      }
-
-      @Override
-      public boolean equals(Object rhs) {
-        if (rhs instanceof Callback) {
-          return Double.compare(expirationTime, ((Callback) rhs).expirationTime) == 0;
-        }
-        return false;
-      }
-
-      @Override
-      public int hashCode() {
-        return Double.hashCode(expirationTime);
-      }
-
-      @Override
-      public int compareTo(Callback rhs) {
-        // Elements with sooner expiration times are sorted as lesser. The head of
-        // Java's PriorityQueue is the least element.
-        return Double.compare(expirationTime, rhs.expirationTime);
-      }
-    }
-
     public static final double kDefaultPeriod = 0.02;
 
+    /** How often callback runtime statistics are published to the Logger, in seconds. */
+    public static final double kProfilePeriod = 5.0;
+
     // The C pointer to the notifier object. We don't use it directly, it is
     // just passed to the JNI bindings.
     private final int m_notifier = NotifierJNI.initializeNotifier();
 
-    private static double m_startTime;
+    private static long m_startTimeUs;
+
+    private static final TimingWheel m_callbacks = new TimingWheel();
+
+    private static final BackgroundTier m_background = new BackgroundTier();
+
+    private static final PhaseBalancer m_balancer = new PhaseBalancer();
+
+    // Scheduler health, reset every time it is published
+    private static final LatencyHistogram m_wakeLatency = new LatencyHistogram();
+    private static final LatencyHistogram m_dispatchTime = new LatencyHistogram();
+    private static final LatencyHistogram m_loopJitter = new LatencyHistogram();
+    private static long m_lastLoopStartNs = 0;
 
-    private static final PriorityQueue<Callback> m_callbacks = new PriorityQueue<>();
+    private static final String[] kWakeLatencyKeys = histogramKeys("NAR_Robot/Scheduler/WakeLatency/");
+    private static final String[] kDispatchTimeKeys = histogramKeys("NAR_Robot/Scheduler/DispatchTime/");
+    private static final String[] kLoopJitterKeys = histogramKeys("NAR_Robot/Scheduler/LoopJitter/");
 
-    private final Method periodicAfterUser0;
+    private static final HashSet<String> m_callbackNames = new HashSet<String>();
+
+    private static boolean m_profiling = true;
+
+    // Simulation clock that jumps straight to the next deadline, see setSteppedClock
+    private static boolean m_steppedClock = false;
+    private static long m_steppedClockEndUs = Long.MAX_VALUE;
+    private volatile boolean m_ended = false;
+
+    // Hot paths run while disabled so they are compiled before the match
+    private static final WarmUp m_warmUp = new WarmUp(2_000_000);
+    private static Callback m_warmUpCallback;
+
+    // Null unless stack sampling is enabled
+    private static StackSampler m_sampler;
+    private static boolean m_wasEnabled = false;
+    private static boolean m_wasTeleop = false;
+
+    // Null unless setRealTime was called
+    private static ThreadConfig m_threadConfig;
+
+    // Null if the JVM doesn't report garbage collections
+    private static GcMonitor m_gcMonitor;
+    // Profiles are published from the loop, every kProfilePeriod
+    private static final long kProfilePeriodUs = Math.round(kProfilePeriod * 1e6);
+    private static long m_nextProfileUs = 0;
+    // Whether console lines are written to the AdvantageKit log, see setLogRecording
+    private static boolean m_logRecording = true;
+    // Read into AdvantageKit inputs at the start of every loop
+    private static final ArrayList<Runnable> m_inputs = new ArrayList<Runnable>();
+
+    // Null until addReceiver is called
+    private static volatile LogStorage m_logStorage;
+
+    // Null unless allocation tracking is enabled
+    private static AllocationTracker m_allocations;
+    private static final AllocationTracker.Stats m_userCodeAllocations = new AllocationTracker.Stats();
+
+    // Main loop callback, low priority callbacks are shed relative to its cycle
+    private static Callback m_loopCallback;
+    private static double m_sheddingFraction = 0.8;
+    private static final int kMaxDeferrals = 5;
+
+    // AdvantageKit's loop hooks are package-private, bound once so calling them doesn't box or allocate
+    private static final MethodHandle kPeriodicBeforeUser =
+        loggerHook("periodicBeforeUser", MethodType.methodType(void.class));
+    private static final MethodHandle kPeriodicAfterUser =
+        loggerHook("periodicAfterUser", MethodType.methodType(void.class, long.class, long.class));
+
+    // Failures in the robot loop, counted and reported instead of being swallowed
+    private static long m_loopErrors = 0;
+    private static long m_loggerErrors = 0;
+    private static Class<?> m_lastLoopError;
+    private static Class<?> m_lastLoggerError;
 
     /** Constructor for TimedRobot. */
     protected NAR_Robot() {
@@ -94,36 +127,102 @@ public class NAR_Robot extends IterativeRobotBase {
      */
     protected NAR_Robot(double period) {
       super(period);
-      m_startTime = Timer.getFPGATimestamp();
+      final String stepped = System.getProperty("nar.steppedClock");
+      if (stepped != null) setSteppedClock(stepped.isEmpty() ? 0 : Double.parseDouble(stepped));
+      if (m_steppedClock) {
+        // Every run starts from the same time and only moves when the loop steps it
+        SimulatorJNI.restartTiming();
+        SimulatorJNI.pauseTiming();
+      }
+      m_startTimeUs = RobotController.getFPGATime();
 
-      Method periodicBeforeUser = null;   //Method to get the periodicBeforeUser method from Logger
-      Method periodicAfterUser = null;   //Method to get the periodicAfterUser method from Logger
+      m_loopCallback = addPeriodic("LoopFunc", this::loop, period);
       try {
-          periodicBeforeUser = Logger.class.getDeclaredMethod("periodicBeforeUser");
-          periodicAfterUser = Logger.class.getDeclaredMethod("periodicAfterUser", long.class, long.class);
-      } catch (NoSuchMethodException | SecurityException e) {
-        e.printStackTrace();
+        m_gcMonitor = new GcMonitor(m_loopCallback.periodUs);
+      } catch (RuntimeException e) {
+        DriverStation.reportWarning("Garbage collection monitoring is not supported by this JVM: " + e, false);
       }
+      //Warm-ups added before the robot existed are only scheduled now
+      if (m_warmUp.size() > 0) scheduleWarmUp();
+      Log.setRecording(m_logRecording);
+      NotifierJNI.setNotifierName(m_notifier, "TimedRobot");
 
-      periodicBeforeUser.setAccessible(true);     //set the method to be accessible
-      periodicAfterUser.setAccessible(true);     //set the method to be accessible
+      HAL.report(tResourceType.kResourceType_Framework, tInstances.kFramework_Timed);
+    }
 
-      final Method periodicBeforeUser0 = periodicBeforeUser;
-      periodicAfterUser0 = periodicAfterUser;
+    /**
+     * Runs one robot loop cycle between AdvantageKit's loop hooks.
+     */
+    private void loop() {
+      final long loopCycleStart = Logger.getRealTimestamp();
+      try {
+        kPeriodicBeforeUser.invokeExact();
+      } catch (Throwable t) {
+        reportLoggerError(t);
+      }
+      final long userCodeStart = Logger.getRealTimestamp();
+      final AllocationTracker allocations = m_allocations;
+      final long startBytes = allocations != null ? allocations.allocatedBytes() : 0;
+      try {
+        for (int i = 0; i < m_inputs.size(); i++) {
+          m_inputs.get(i).run();
+        }
+        loopFunc();
+      } catch (RuntimeException e) {
+        m_loopErrors++;
+        if (e.getClass() != m_lastLoopError) {
+          m_lastLoopError = e.getClass();
+          DriverStation.reportError("Unhandled exception in robot loop: " + e, e.getStackTrace());
+        }
+      }
+      if (allocations != null) m_userCodeAllocations.record(allocations.since(startBytes));
+      final long loopCycleEnd = Logger.getRealTimestamp();
+      if (m_gcMonitor != null) {
+        m_gcMonitor.recordCycle(loopCycleStart, loopCycleEnd);
+        m_gcMonitor.publish();
+      }
+      //Recorded inside the cycle so they're stamped with it, after loopCycleEnd so they don't count as user code
+      Log.recordOutputs();
+      final long nowUs = Logger.getTimestamp();
+      if (nowUs >= m_nextProfileUs) {
+        m_nextProfileUs = nowUs + kProfilePeriodUs;
+        publishProfiles();
+      }
+      try {
+        kPeriodicAfterUser.invokeExact(loopCycleEnd - userCodeStart, userCodeStart - loopCycleStart);
+      } catch (Throwable t) {
+        reportLoggerError(t);
+      }
+    }
 
-      addPeriodic(()-> {
-        try {
-          long loopCycleStart = Logger.getRealTimestamp();
-          periodicBeforeUser0.invoke(null);
-          long userCodeStart = Logger.getRealTimestamp();
-          loopFunc();
-          long loopCycleEnd = Logger.getRealTimestamp();
-          periodicAfterUser0.invoke(null, loopCycleEnd - userCodeStart, userCodeStart - loopCycleStart);
-        } catch (Exception e) {}
-      }, period);
-      NotifierJNI.setNotifierName(m_notifier, "TimedRobot");
+    /**
+     * Counts a failure in one of AdvantageKit's loop hooks, reporting it the first time it is seen.
+     * @param t What the hook threw.
+     */
+    private static void reportLoggerError(Throwable t) {
+      if (t instanceof Error && !(t instanceof LinkageError)) throw (Error) t;
+      m_loggerErrors++;
+      if (t.getClass() != m_lastLoggerError) {
+        m_lastLoggerError = t.getClass();
+        DriverStation.reportError("AdvantageKit loop hook failed: " + t, t.getStackTrace());
+      }
+    }
 
-      HAL.report(tResourceType.kResourceType_Framework, tInstances.kFramework_Timed);
+    /**
+     * Binds one of AdvantageKit's package-private static Logger methods.
+     * @param name Name of the method.
+     * @param type Type of the method.
+     * @return Handle to the method, or a handle that does nothing if it could not be found.
+     */
+    private static MethodHandle loggerHook(String name, MethodType type) {
+      try {
+        final Method method = Logger.class.getDeclaredMethod(name, type.parameterArray());
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        DriverStation.reportError("Could not bind Logger." + name + ", AdvantageKit will not log the robot loop: " + e, e.getStackTrace());
+        return MethodHandles.empty(type);
+      }
     }
 
     @Override
@@ -148,45 +247,429 @@ public class NAR_Robot extends IterativeRobotBase {
         Method registerFields = AutoLogOutputManager.class.getDeclaredMethod("registerFields", Object.class);
         registerFields.setAccessible(true);
         registerFields.invoke(null, this);
-        periodicAfterUser0.invoke(null, initEnd - initStart, 0);
       }
       catch (Exception e) {
         e.printStackTrace();
       }
+      try {
+        kPeriodicAfterUser.invokeExact(initEnd - initStart, 0L);
+      } catch (Throwable t) {
+        reportLoggerError(t);
+      }
 
       // Tell the DS that the robot is ready to be enabled
       System.out.println("********** Robot program startup complete **********");
       DriverStationJNI.observeUserProgramStarting();
 
+      if (m_threadConfig != null) {
+        // Started first so the pinning thread doesn't inherit the main thread's real-time priority
+        m_threadConfig.startAuxiliaryPinning(kProfilePeriod);
+        m_threadConfig.applyToMainThread();
+      }
+
+      // Stepped clock turned on after construction, e.g. by setReplay in the robot's constructor
+      if (m_steppedClock && !SimulatorJNI.isTimingPaused()) {
+        SimulatorJNI.pauseTiming();
+      }
+
       // Loop forever, calling the appropriate mode-dependent function
       while (true) {
-        // We don't have to check there's an element in the queue first because
-        // there's always at least one (the constructor adds one). It's reenqueued
-        // at the end of the loop.
-        var callback = m_callbacks.poll();
-
-        NotifierJNI.updateNotifierAlarm(m_notifier, (long) (callback.expirationTime * 1e6));
+        // There's always at least one callback in the wheel (the constructor adds one).
+        final long expirationTime = m_callbacks.nextExpiration();
+
+        long curTime;
+        if (m_steppedClock) {
+          if (m_ended || expirationTime >= m_steppedClockEndUs) {
+            break;
+          }
+          curTime = RobotController.getFPGATime();
+          if (expirationTime > curTime) {
+            SimulatorJNI.stepTimingAsync(expirationTime - curTime);
+            curTime = expirationTime;
+          }
+        } else {
+          NotifierJNI.updateNotifierAlarm(m_notifier, expirationTime);
+
+          curTime = NotifierJNI.waitForNotifierAlarm(m_notifier);
+          if (curTime == 0) {
+            break;
+          }
+        }
 
-        long curTime = NotifierJNI.waitForNotifierAlarm(m_notifier);
-        if (curTime == 0) {
-          break;
+        // Process all callbacks that are ready to run, the one the alarm was set for included
+        final long now = Math.max(curTime, expirationTime);
+        final long wakeNs = System.nanoTime();
+        m_wakeLatency.record((curTime - expirationTime) * 1000);
+        final StackSampler sampler = m_sampler;
+        if (sampler != null) sampler.begin(wakeNs);
+        Callback callback;
+        while ((callback = m_callbacks.poll(now)) != null) {
+          if (!callback.shouldRun(now)) {
+            callback.advance(now, false);
+            m_callbacks.insert(callback);
+            continue;
+          }
+
+          if (callback.priority == Priority.LOW && shouldShed(callback, now + (System.nanoTime() - wakeNs) / 1000)) {
+            // Run right after the next robot loop
+            callback.defer(m_loopCallback.expirationUs);
+            m_callbacks.insert(callback);
+            continue;
+          }
+
+          if (callback == m_loopCallback) {
+            final long loopStartNs = System.nanoTime();
+            if (m_lastLoopStartNs != 0) {
+              m_loopJitter.record(Math.abs(loopStartNs - m_lastLoopStartNs - callback.periodUs * 1000));
+            }
+            m_lastLoopStartNs = loopStartNs;
+          }
+
+          final AllocationTracker allocations = m_allocations;
+          final long startBytes = allocations != null ? allocations.allocatedBytes() : 0;
+
+          if (m_profiling) {
+            final long startNs = System.nanoTime();
+            callback.func.run();
+            final long endNs = System.nanoTime();
+            callback.record(endNs - startNs);
+
+            // Overran if it finished after its next deadline
+            if (now + (endNs - wakeNs) / 1000 > callback.expirationUs + callback.periodUs) {
+              callback.overruns++;
+            }
+          } else {
+            callback.func.run();
+          }
+
+          if (allocations != null) callback.allocations.record(allocations.since(startBytes));
+
+          callback.advance(now, true);
+          m_callbacks.insert(callback);
         }
+        if (sampler != null) sampler.end();
+        m_dispatchTime.record(System.nanoTime() - wakeNs);
+      }
+    }
 
-        callback.func.run();
+    /**
+     * Returns whether a low priority callback should be deferred to keep the robot loop on time.
+     * @param callback The callback about to run.
+     * @param nowUs The current time in microseconds.
+     * @return True if the callback should be deferred.
+     */
+    private static boolean shouldShed(Callback callback, long nowUs) {
+      // Shedding goes by wall time, which would make a stepped run depend on the machine it runs on
+      if (m_steppedClock || m_loopCallback == null || m_sheddingFraction >= 1 || callback.deferrals >= kMaxDeferrals) return false;
+
+      // The robot loop is already late, don't hold it up further
+      if (m_loopCallback.expirationUs <= nowUs) return true;
 
-        callback.expirationTime += callback.period;
-        m_callbacks.add(callback);
+      final long periodUs = m_loopCallback.periodUs;
+      final long elapsedUs = Math.floorMod(nowUs - m_loopCallback.expirationUs, periodUs);
+      return elapsedUs + callback.budgetUs > m_sheddingFraction * periodUs;
+    }
 
-        // Process all other callbacks that are ready to run
-        while ((long) (m_callbacks.peek().expirationTime * 1e6) <= curTime) {
-          callback = m_callbacks.poll();
+    /**
+     * Runs the simulation on a stepped clock instead of in real time. Call before the robot is
+     * constructed, or set the "nar.steppedClock" system property to the duration instead. If called
+     * later the clock is paused where it is when the robot starts, so the order callbacks run in
+     * is the same every run but their simulated times are not.
+     * <p>The simulated FPGA clock is restarted at 0 and paused, and instead of waiting on the
+     * Notifier the main loop steps it straight to the next callback deadline, so callbacks run as
+     * fast as the CPU allows. Every run dispatches the same callbacks in the same order at the same
+     * simulated times: load shedding is disabled and automatic phase offsets only use callback
+     * budgets, since both would otherwise depend on how fast the machine is. Other Notifiers, such
+     * as WPILib's Notifier class, still fire on the simulated clock but aren't waited on.
+     * <p>Has no effect on a real robot.
+     * @param durationSeconds Simulated time to run for before startCompetition returns, 0 or less to run until the program is stopped.
+     */
+    public static void setSteppedClock(double durationSeconds) {
+      if (isReal()) {
+        DriverStation.reportWarning("The stepped clock only works in simulation", false);
+        return;
+      }
+      m_steppedClock = true;
+      m_balancer.useMeasurements(false);
+      if (durationSeconds > 0) {
+        m_steppedClockEndUs = Math.round(durationSeconds * 1e6);
+        // Ending the run on purpose isn't an error
+        suppressExitWarning(true);
+      }
+    }
 
-          callback.func.run();
+    /**
+     * Registers code to run while the robot is disabled so the JIT compiles it before the robot is
+     * enabled, instead of during the first seconds of the match.
+     * <p>Routines run round robin for up to 2 ms of every robot loop cycle while disabled, until the
+     * JIT stops compiling, which is printed to the console and logged as "NAR_Robot/WarmUp/Settled".
+     * Routines must use synthetic inputs and must not command any actuators or change any state the
+     * robot relies on, such as odometry. A routine that throws is removed.
+     * <p>Routines added before the robot is constructed are only stored, so registering one never needs
+     * the HAL and is safe from tests and benchmarks.
+     * @param name Name of the routine, used when reporting.
+     * @param routine Code to warm up.
+     */
+    public static void addWarmUp(String name, Runnable routine) {
+      m_warmUp.add(name, routine);
+      if (m_loopCallback != null) scheduleWarmUp();
+    }
 
-          callback.expirationTime += callback.period;
-          m_callbacks.add(callback);
+    /**
+     * Schedules the callback running the warm-up routines, once a robot exists.
+     */
+    private static void scheduleWarmUp() {
+      if (m_warmUpCallback != null) return;
+      m_warmUpCallback = addPeriodic("WarmUp", ()-> {
+        if (DriverStation.isDisabled()) m_warmUp.run();
+      }, kDefaultPeriod).withPriority(Priority.LOW, 0.002);
+    }
+
+    /**
+     * Returns whether the routines added with {@link #addWarmUp(String, Runnable)} have been run
+     * until the JIT stopped compiling.
+     * @return True once warm-up is done.
+     */
+    public static boolean isWarmedUp() {
+      return m_warmUp.isSettled();
+    }
+
+    /**
+     * Samples the main thread's stack whenever dispatching callbacks takes longer than a threshold,
+     * to find slow code on the robot without a profiler. Call from the robot's main thread, e.g. the
+     * robot's constructor.
+     * <p>A watchdog thread takes a stack sample every half threshold while a dispatch is over it and
+     * counts it against the innermost frame outside the JDK. The hottest frames are printed to the
+     * console, logged under "NAR_Robot/Hotspots" and cleared when the robot is disabled after being
+     * enabled. With the FMS attached only the end of teleop counts, so the gap between auto and teleop
+     * doesn't split a match and each match gets one report. Without it, every enabled period gets its own.
+     * @param thresholdSeconds How long a dispatch may run before it is sampled, usually the loop period.
+     * @param top Number of frames to report.
+     */
+    public static void setStackSampling(double thresholdSeconds, int top) {
+      if (m_sampler != null) return;
+      m_sampler = new StackSampler(Math.round(thresholdSeconds * 1e9), top);
+      addPeriodic("StackSampler", ()-> {
+        final boolean enabled = DriverStation.isEnabled();
+        if (m_wasEnabled && !enabled && (m_wasTeleop || !DriverStation.isFMSAttached())) m_sampler.report();
+        m_wasEnabled = enabled;
+        m_wasTeleop = enabled && DriverStation.isTeleop();
+      }, 0.1).withPriority(Priority.LOW, 0.0005);
+    }
+
+    /**
+     * Runs the main loop at real-time priority on its own core and moves other threads to another
+     * core, so the robot loop isn't preempted by telemetry. Call before startCompetition, e.g. from
+     * the robot's constructor. Applied once robotInit has run, then a normal priority daemon thread
+     * looks for threads started later every {@link #kProfilePeriod} seconds, off the main loop.
+     * <p>The main thread gets SCHED_FIFO at the given priority through WPILib's Threads class and is
+     * pinned with taskset. Threads named like the dashboard's WebSocket threads, the background tier, the
+     * console logger, the stack sampling watchdog and AdvantageKit's log writer are pinned to the auxiliary core, add others with
+     * {@link #addAuxiliaryThreads(String)}. Those threads are also set back to normal priority, since
+     * threads started by the main thread inherit its real-time priority. The resulting priority and
+     * cores are printed at startup.
+     * <p>Has no effect in simulation.
+     * @param priority Real-time priority of the main thread from 1 to 99, 0 to leave it alone. The roboRIO's
+     * DS communication runs at 40 and CAN at 30 or above, staying below them is recommended.
+     * @param mainCore Core to pin the main thread to, -1 to leave it alone.
+     * @param auxiliaryCore Core to pin auxiliary threads to, -1 to leave them alone.
+     */
+    public static void setRealTime(int priority, int mainCore, int auxiliaryCore) {
+      if (!isReal()) {
+        Log.info("NAR_Robot", "Real-time thread settings are ignored in simulation");
+        return;
+      }
+      m_threadConfig = new ThreadConfig(priority, mainCore, auxiliaryCore);
+      m_threadConfig.addPrefix("WebSocket");
+      m_threadConfig.addPrefix("NAR_Background");
+      m_threadConfig.addPrefix("NAR_Log");
+      m_threadConfig.addPrefix("NAR_Watchdog");
+      m_threadConfig.addPrefix("AdvantageKit");
+      m_threadConfig.addPrefix("NAR_ThreadConfig");
+    }
+
+    /**
+     * Adds threads to pin to the auxiliary core set with {@link #setRealTime(int, int, int)}, such
+     * as vision or vendor threads.
+     * @param namePrefix Start of the thread names, only the first 15 characters of a name are visible to Linux.
+     */
+    public static void addAuxiliaryThreads(String namePrefix) {
+      if (m_threadConfig != null) m_threadConfig.addPrefix(namePrefix);
+    }
+
+    /**
+     * Adds a routine which reads hardware into AdvantageKit inputs with Logger.processInputs. Every
+     * routine runs at the start of each loop before robotPeriodic and commands, so code reading the
+     * inputs sees the same values on the robot and in replay.
+     * @param update Reads the hardware, unless replaying, then calls Logger.processInputs.
+     */
+    public static void addInputs(Runnable update) {
+      m_inputs.add(update);
+    }
+
+    /**
+     * Replays a log from a match through the robot loop as fast as possible. Call before
+     * Logger.start(), e.g. from the robot's constructor, and only in simulation.
+     * <p>Inputs registered with {@link #addInputs(Runnable)} are read back from the log instead of from
+     * hardware, and every output is written to a new log next to the original with "_replay" added to
+     * its name. This covers each {@link common.hardware.motorcontroller.NAR_Motor}'s position, velocity and
+     * output and {@link common.core.swerve.SwerveBase}'s gyro, whose getters return the logged values while
+     * replaying, so controllers and odometry run against the match's data. Code which must see exactly what
+     * the robot saw reads the start of loop values instead, ie. {@link common.hardware.motorcontroller.NAR_Motor#getLoopPosition()}.
+     * Anything read straight from hardware is not replayed, notably camera results, so
+     * replayed odometry has no vision measurements. The loop runs on the
+     * stepped clock, see {@link #setSteppedClock(double)}, and AdvantageKit ends the program when
+     * the log runs out.
+     * @param path Path of the .wpilog to replay, null to ask for one or use the AKIT_LOG_PATH environment variable.
+     */
+    public static void setReplay(String path) {
+      if (isReal()) {
+        DriverStation.reportWarning("Log replay only works in simulation", false);
+        return;
+      }
+      final String log = path != null ? path : LogFileUtil.findReplayLog();
+      Logger.setReplaySource(new WPILOGReader(log));
+      Logger.addDataReceiver(new WPILOGWriter(LogFileUtil.addPathSuffix(log, "_replay")));
+      setSteppedClock(0);
+    }
+
+    /**
+     * Sets how far into a robot loop cycle low priority callbacks may still run.
+     * <p>A {@link Priority#LOW} callback whose budget would push the current cycle past this fraction
+     * of the period is deferred until after the next robot loop, at most 5 times in a row.
+     * @param fraction Fraction of the period from 0 to 1, defaults to 0.8. Values of 1 or more disable shedding.
+     */
+    public static void setLoadShedding(double fraction) {
+      m_sheddingFraction = fraction;
+    }
+
+    /**
+     * Publishes the runtime of every callback since the last publish to the Logger.
+     */
+    private static void publishProfiles() {
+      for (int i = 0; i < m_callbacks.size(); i++) {
+        final Callback callback = m_callbacks.get(i);
+        final LatencyHistogram runtime = callback.runtime;
+        Logger.recordOutput(callback.p50Key, runtime.percentile(0.5) / 1e6);
+        Logger.recordOutput(callback.p99Key, runtime.percentile(0.99) / 1e6);
+        Logger.recordOutput(callback.maxKey, runtime.max() / 1e6);
+        Logger.recordOutput(callback.overrunKey, callback.overruns);
+        Logger.recordOutput(callback.skippedKey, callback.skipped);
+        Logger.recordOutput(callback.coalescedKey, callback.coalesced);
+        Logger.recordOutput(callback.deferredKey, callback.deferred);
+        if (callback.autoPhase) Logger.recordOutput(callback.phaseKey, callback.offsetUs / 1e3);
+        runtime.reset();
+        if (m_allocations != null) {
+          Logger.recordOutput(callback.allocatedKey, callback.allocations.average());
+          Logger.recordOutput(callback.maxAllocatedKey, callback.allocations.max());
+          callback.allocations.reset();
         }
       }
+      if (m_allocations != null) {
+        Logger.recordOutput("NAR_Robot/Allocations/UserCode/AllocatedBytes", m_userCodeAllocations.average());
+        Logger.recordOutput("NAR_Robot/Allocations/UserCode/MaxAllocatedBytes", m_userCodeAllocations.max());
+        m_userCodeAllocations.reset();
+      }
+      for (final BackgroundTier.Task task : m_background.tasks()) {
+        Logger.recordOutput(task.skippedKey, task.skipped);
+      }
+      Logger.recordOutput("NAR_Robot/Errors/LoopFunc", m_loopErrors);
+      Logger.recordOutput("NAR_Robot/Errors/Logger", m_loggerErrors);
+      publishHistogram(kWakeLatencyKeys, m_wakeLatency);
+      publishHistogram(kDispatchTimeKeys, m_dispatchTime);
+      publishHistogram(kLoopJitterKeys, m_loopJitter);
+      if (m_logStorage != null) m_logStorage.publish();
+    }
+
+    /**
+     * Logs the p50, p99 and max of a histogram in milliseconds, then resets it.
+     * @param keys Keys built by {@link #histogramKeys(String)}.
+     * @param histogram The histogram to publish.
+     */
+    private static void publishHistogram(String[] keys, LatencyHistogram histogram) {
+      Logger.recordOutput(keys[0], histogram.percentile(0.5) / 1e6);
+      Logger.recordOutput(keys[1], histogram.percentile(0.99) / 1e6);
+      Logger.recordOutput(keys[2], histogram.max() / 1e6);
+      histogram.reset();
+    }
+
+    /**
+     * Builds the Logger keys for a histogram.
+     * @param prefix Key prefix ending in a slash.
+     * @return Keys for the p50, p99 and max.
+     */
+    private static String[] histogramKeys(String prefix) {
+      return new String[] {prefix + "P50Ms", prefix + "P99Ms", prefix + "MaxMs"};
+    }
+
+    /**
+     * Sets whether lines printed with {@link Log} are also written to the AdvantageKit log under
+     * "Log/&lt;category&gt;", enabled by default. Lines are recorded in one batch per category at the end of
+     * the loop cycle they reach the main thread in, the time they were logged is kept at the start of each line.
+     * @param enabled Whether to record console lines.
+     */
+    public static void setLogRecording(boolean enabled) {
+      m_logRecording = enabled;
+      //Applied by the constructor otherwise, recording reads the FPGA clock
+      if (m_loopCallback != null) Log.setRecording(enabled);
+    }
+
+    /**
+     * Enables or disables per-callback runtime profiling, enabled by default.
+     * <p>Each callback's p50, p99 and max runtime over the last {@link #kProfilePeriod} seconds and
+     * its total overrun count are logged under "NAR_Robot/Callbacks/name". Skipped and coalesced
+     * counts are logged even when profiling is disabled.
+     * <p>Scheduler health is always logged under "NAR_Robot/Scheduler": WakeLatency is how late the
+     * Notifier woke up past the deadline, DispatchTime is how long each wake-up spent running
+     * callbacks, and LoopJitter is how far each robot loop started from one period after the last.
+     * @param enabled Whether to time each callback.
+     */
+    public static void setProfiling(boolean enabled) {
+      m_profiling = enabled;
+    }
+
+    /**
+     * Sets whether to measure how many bytes each callback allocates on the heap, off by default.
+     * <p>The average and largest allocation per run over the last {@link #kProfilePeriod} seconds are
+     * logged as AllocatedBytes and MaxAllocatedBytes under "NAR_Robot/Callbacks/name", and for
+     * loopFunc alone, without AdvantageKit's logging, under "NAR_Robot/Allocations/UserCode".
+     * This is a diagnostic, reading the counter costs about a microsecond per callback. Call from
+     * the robot's main thread, it is the thread that gets measured.
+     * @param enabled Whether to track allocations.
+     */
+    public static void setAllocationTracking(boolean enabled) {
+      if (!enabled) {
+        m_allocations = null;
+        return;
+      }
+      if (m_allocations != null) return;
+      m_allocations = AllocationTracker.forCurrentThread();
+      if (m_allocations == null) {
+        DriverStation.reportWarning("Allocation tracking is not supported by this JVM", false);
+      }
+    }
+
+    /**
+     * What a callback does when it falls more than a period behind, for example after a GC pause
+     * or a CAN timeout stalls the robot loop.
+     */
+    public static enum OverrunPolicy {
+      /** Skip the late run and wait for the next aligned deadline. */
+      SKIP,
+      /** Run once, then wait for the next aligned deadline. */
+      COALESCE,
+      /** Run once for every missed deadline, back to back, until caught up. */
+      BURST
+    }
+
+    /**
+     * Scheduling priority of a callback.
+     */
+    public static enum Priority {
+      /** Control, odometry and anything else that must run every period. */
+      HIGH,
+      /** Telemetry and dashboards, deferred when the robot loop is running out of time. */
+      LOW
     }
 
     public static enum LoggingState {
@@ -197,6 +680,9 @@ public class NAR_Robot extends IterativeRobotBase {
 
     /**
      * Add a data receiver for Adv Kit logging to a USB drive.
+     * <p>Falls back to the other USB port and then to {@value LogStorage#kInternalRoot} if the drive
+     * isn't mounted or is full. Files are split every 256 MB and logging stops when less than 64 MB
+     * is free. Bytes written and write latency are logged under "NAR_Robot/LogStorage".
      * @param port true if USB drive is plugged into the top port, false if it is plugged into the bottom port.
      * @param state session logging or full match logging.
      */
@@ -205,17 +691,18 @@ public class NAR_Robot extends IterativeRobotBase {
         return;
       }
       
+      final LocalDateTime now = LocalDateTime.now();
       String info = "";
       if(state == LoggingState.FULLMATCH){
         info += DriverStation.getMatchNumber() + "_" + 
                 DriverStation.getMatchType() + "_" + 
                 DriverStation.getEventName() + "_";
       }
-        info += LocalDateTime.now().getMonthValue() + "_" + 
-                  LocalDateTime.now().getDayOfMonth() + "_" + 
-                  LocalDateTime.now().getYear() + "_T_" + 
-                  LocalDateTime.now().getHour() + "_" + 
-                  LocalDateTime.now().getMinute();
+        info += now.getMonthValue() + "_" + 
+                  now.getDayOfMonth() + "_" + 
+                  now.getYear() + "_T_" + 
+                  now.getHour() + "_" + 
+                  now.getMinute();
       String folder = "";
       if(state == LoggingState.SESSION){
         folder = "sessions";
@@ -223,24 +710,20 @@ public class NAR_Robot extends IterativeRobotBase {
         folder = "matches";
       }
 
-      if(port){
-        try{
-          Logger.addDataReceiver(new WPILOGWriter("/media/sda1/" + folder + "/" + info + ".wpilog"));
-        }catch(Exception e){
-            e.printStackTrace();
-        }
-      }else{
-        try{
-          Logger.addDataReceiver(new WPILOGWriter("/media/sda2/" + folder + "/" + info + ".wpilog"));
-        }catch(Exception e){
-            e.printStackTrace();
-        }
-      }            
+      try{
+        final LogStorage storage = port ? new LogStorage(folder, info, "/media/sda1", "/media/sda2")
+                                        : new LogStorage(folder, info, "/media/sda2", "/media/sda1");
+        Logger.addDataReceiver(storage);
+        m_logStorage = storage;
+      }catch(Exception e){
+          e.printStackTrace();
+      }
     }
 
     /** Ends the main loop in startCompetition(). */
     @Override
     public void endCompetition() {
+      m_ended = true;
       NotifierJNI.stopNotifier(m_notifier);
     }
 
@@ -252,9 +735,10 @@ public class NAR_Robot extends IterativeRobotBase {
      *
      * @param callback The callback to run.
      * @param periodSeconds The period at which to run the callback in seconds.
+     * @return The scheduled callback, for configuring how it runs.
      */
-    public static void addPeriodic(Runnable callback, double periodSeconds) {
-      m_callbacks.add(new Callback(callback, m_startTime, periodSeconds, 0.0));
+    public static Callback addPeriodic(Runnable callback, double periodSeconds) {
+      return addPeriodic(null, callback, periodSeconds, 0.0);
     }
 
     /**
@@ -267,8 +751,118 @@ public class NAR_Robot extends IterativeRobotBase {
      * @param periodSeconds The period at which to run the callback in seconds.
      * @param offsetSeconds The offset from the common starting time in seconds. This is useful for
      *     scheduling a callback in a different timeslot relative to TimedRobot.
+     * @return The scheduled callback, for configuring how it runs.
      */
-    public static void addPeriodic(Runnable callback, double periodSeconds, double offsetSeconds) {
-      m_callbacks.add(new Callback(callback, m_startTime, periodSeconds, offsetSeconds));
+    public static Callback addPeriodic(Runnable callback, double periodSeconds, double offsetSeconds) {
+      return addPeriodic(null, callback, periodSeconds, offsetSeconds);
+    }
+
+    /**
+     * Add a named callback to run at a specific period.
+     *
+     * <p>This is scheduled on TimedRobot's Notifier, so TimedRobot and the callback run
+     * synchronously. Interactions between them are thread-safe.
+     *
+     * @param name Name the callback is profiled under, null to generate one.
+     * @param callback The callback to run.
+     * @param periodSeconds The period at which to run the callback in seconds.
+     * @return The scheduled callback, for configuring how it runs.
+     */
+    public static Callback addPeriodic(String name, Runnable callback, double periodSeconds) {
+      return addPeriodic(name, callback, periodSeconds, 0.0);
+    }
+
+    /**
+     * Add a named callback to run at a specific period with a starting time offset.
+     *
+     * <p>This is scheduled on TimedRobot's Notifier, so TimedRobot and the callback run
+     * synchronously. Interactions between them are thread-safe.
+     *
+     * @param name Name the callback is profiled under, null to generate one.
+     * @param callback The callback to run.
+     * @param periodSeconds The period at which to run the callback in seconds.
+     * @param offsetSeconds The offset from the common starting time in seconds. This is useful for
+     *     scheduling a callback in a different timeslot relative to TimedRobot.
+     * @return The scheduled callback, for configuring how it runs.
+     */
+    public static Callback addPeriodic(String name, Runnable callback, double periodSeconds, double offsetSeconds) {
+      final long periodUs = Math.round(periodSeconds * 1e6);
+      if (periodUs <= 0) {
+        throw new IllegalArgumentException("Callback period must be positive, got " + periodSeconds);
+      }
+      final Callback handle = new Callback(uniqueName(name), callback, m_startTimeUs, periodUs,
+          Math.round(offsetSeconds * 1e6), RobotController.getFPGATime());
+      m_callbacks.register(handle);
+      return handle;
+    }
+
+    /**
+     * Returns a callback name that is not already in use.
+     * @param name Requested name, may be null.
+     * @return The name, suffixed with a number if it is taken.
+     */
+    private static String uniqueName(String name) {
+      final String base = name == null ? "Callback" : name;
+      String unique = name == null ? base + m_callbacks.size() : base;
+      for (int i = 2; m_callbackNames.contains(unique); i++) {
+        unique = base + "_" + i;
+      }
+      m_callbackNames.add(unique);
+      return unique;
+    }
+
+    /**
+     * Add periodic work that is split between the main thread and a background thread.
+     *
+     * <p>The snapshot is scheduled like any other callback and should only copy the values it needs
+     * into fields, returning false if there is nothing to publish. The publish then runs on the
+     * background thread, where serialization and I/O can't delay control code. A snapshot is skipped
+     * while the previous publish is still running, so the publish can safely read what the snapshot
+     * wrote without locking. The background thread runs at normal priority, so it only can't
+     * preempt the main loop once {@link #setRealTime(int, int, int)} is used.
+     *
+     * @param name Name the work is profiled under.
+     * @param snapshot Copies the data to publish, runs on the main thread.
+     * @param publish Publishes the copied data, runs on the background thread.
+     * @param periodSeconds The period at which to take snapshots in seconds.
+     * @return The scheduled snapshot callback, for configuring how it runs.
+     */
+    public static Callback addBackgroundPeriodic(String name, BooleanSupplier snapshot, Runnable publish, double periodSeconds) {
+      final BackgroundTier.Task task = new BackgroundTier.Task(uniqueName(name), snapshot, publish);
+      m_background.add(task);
+      return enableAutoPhase(addPeriodic(task.name + "Snapshot", ()-> m_background.submit(task), periodSeconds));
+    }
+
+    /**
+     * Add a callback to run at a specific period, in the least loaded timeslot of that period.
+     *
+     * <p>Instead of a fixed offset, the callback is moved every {@link #kProfilePeriod} seconds to
+     * wherever the measured runtime of the other callbacks with the same period leaves the most
+     * room, which keeps them from all landing in the same timeslot as TimedRobot. The chosen offset
+     * is logged under "NAR_Robot/Callbacks/name/PhaseMs". Relies on profiling, see
+     * {@link #setProfiling(boolean)}, otherwise the callback's budget is used as its cost.
+     *
+     * @param name Name the callback is profiled under, null to generate one.
+     * @param callback The callback to run.
+     * @param periodSeconds The period at which to run the callback in seconds.
+     * @return The scheduled callback, for configuring how it runs.
+     */
+    public static Callback addPeriodicAutoPhase(String name, Runnable callback, double periodSeconds) {
+      return enableAutoPhase(addPeriodic(name, callback, periodSeconds));
+    }
+
+    /**
+     * Hands a callback's offset over to the phase balancer.
+     * @param callback The callback to balance.
+     * @return The callback.
+     */
+    private static Callback enableAutoPhase(Callback callback) {
+      if (m_balancer.isEmpty()) {
+        addPeriodic("PhaseBalancer", ()-> m_balancer.rebalance(m_callbacks, m_startTimeUs, RobotController.getFPGATime()),
+            kProfilePeriod).withPriority(Priority.LOW, 0.0005);
+      }
+      callback.autoPhase = true;
+      m_balancer.add(callback);
+      return callback;
     }
-}
\ No newline at end of file
+}
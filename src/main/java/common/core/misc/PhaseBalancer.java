@@ -0,0 +1,137 @@
+package common.core.misc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Spreads auto-phased callbacks across their period so they don't all land in the same timeslot
+ * as the robot loop.
+ * <p>For every period used by an auto-phased callback, the period is split into 1 ms bins and the
+ * measured runtime of every fixed callback that repeats within it is laid into those bins. The
+ * auto-phased callbacks are then placed, most expensive first, into the least loaded bin.
+ */
+final class PhaseBalancer {
+    private static final long BIN_US = TimingWheel.TICK_US;
+    private static final int MAX_BINS = 100;
+
+    private final ArrayList<Callback> autoPhased = new ArrayList<Callback>();
+    private final ArrayList<Callback> group = new ArrayList<Callback>();
+    private double[] load = new double[0];
+    private boolean measured = true;
+
+    /**
+     * Adds a callback whose offset should be chosen automatically.
+     * @param callback The callback to balance.
+     */
+    void add(Callback callback) {
+        autoPhased.add(callback);
+    }
+
+    /**
+     * Sets whether to use measured runtimes, otherwise only callback budgets are used so the
+     * offsets come out the same on every run.
+     * @param measured Whether to use measured runtimes, true by default.
+     */
+    void useMeasurements(boolean measured) {
+        this.measured = measured;
+    }
+
+    /**
+     * Returns whether any callbacks are auto-phased.
+     * @return True if there is anything to balance.
+     */
+    boolean isEmpty() {
+        return autoPhased.isEmpty();
+    }
+
+    /**
+     * Reassigns the offset of every auto-phased callback from its measured runtime.
+     * @param wheel The wheel the callbacks are scheduled in.
+     * @param startUs The common starting point for all callback scheduling in microseconds.
+     * @param nowUs The current time in microseconds.
+     */
+    void rebalance(TimingWheel wheel, long startUs, long nowUs) {
+        for (final Callback first : autoPhased) {
+            final long periodUs = first.periodUs;
+            // Each period is balanced once, by its first auto-phased callback
+            if (first != firstWithPeriod(periodUs)) continue;
+
+            final int bins = (int) Math.max(1, Math.min(MAX_BINS, periodUs / BIN_US));
+            final long binUs = periodUs / bins;
+            if (load.length < bins) load = new double[bins];
+            Arrays.fill(load, 0, bins, 0);
+
+            // Lay out the callbacks that stay where they are
+            for (int i = 0; i < wheel.size(); i++) {
+                final Callback fixed = wheel.get(i);
+                if (fixed.autoPhase || periodUs % fixed.periodUs != 0) continue;
+                for (long t = phase(fixed, startUs); t < periodUs; t += fixed.periodUs) {
+                    occupy(bins, binUs, (int) (t % periodUs / binUs), cost(fixed));
+                }
+            }
+
+            group.clear();
+            for (final Callback callback : autoPhased) {
+                if (callback.periodUs == periodUs) group.add(callback);
+            }
+            group.sort((a, b) -> Double.compare(cost(b), cost(a)));
+
+            for (final Callback callback : group) {
+                int best = 0;
+                for (int bin = 1; bin < bins; bin++) {
+                    if (load[bin] < load[best]) best = bin;
+                }
+                occupy(bins, binUs, best, cost(callback));
+                move(wheel, callback, startUs, best * binUs, nowUs);
+            }
+        }
+    }
+
+    private Callback firstWithPeriod(long periodUs) {
+        for (final Callback callback : autoPhased) {
+            if (callback.periodUs == periodUs) return callback;
+        }
+        return null;
+    }
+
+    /**
+     * Adds a callback's runtime to the bins it occupies, starting at a bin.
+     */
+    private void occupy(int bins, long binUs, int bin, double costUs) {
+        double remaining = costUs;
+        for (int i = 0; i < bins && remaining > 0; i++) {
+            final double used = Math.min(remaining, binUs);
+            load[(bin + i) % bins] += used;
+            remaining -= used;
+        }
+        // Even free callbacks take a little room, keeps them from stacking in one bin
+        if (costUs <= 0) load[bin] += 1;
+    }
+
+    /**
+     * Schedules a callback at a new offset if it moved.
+     */
+    private static void move(TimingWheel wheel, Callback callback, long startUs, long offsetUs, long nowUs) {
+        callback.offsetUs = offsetUs;
+        if (phase(callback, startUs) == offsetUs || callback.deferrals > 0) return;
+        if (!wheel.remove(callback)) return;
+
+        final long periodUs = callback.periodUs;
+        callback.expirationUs = startUs + offsetUs + (Math.floorDiv(nowUs - startUs - offsetUs, periodUs) + 1) * periodUs;
+        wheel.insert(callback);
+    }
+
+    /**
+     * Returns where in its period a callback currently runs.
+     */
+    private static long phase(Callback callback, long startUs) {
+        return Math.floorMod(callback.expirationUs - startUs, callback.periodUs);
+    }
+
+    /**
+     * Returns a callback's expected runtime in microseconds, measured if possible.
+     */
+    private double cost(Callback callback) {
+        return measured && callback.averageNs > 0 ? callback.averageNs / 1000 : callback.budgetUs;
+    }
+}
@@ -0,0 +1,126 @@
+package common.core.misc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.littletonrobotics.junction.Logger;
+
+import common.utility.Log;
+
+/**
+ * Watchdog that samples the main thread's stack while a dispatch runs past a threshold, used by
+ * {@link NAR_Robot#setStackSampling(double, int)}.
+ * <p>The main thread only writes when each dispatch starts and ends. A daemon thread polls
+ * at half the threshold and, while a dispatch is over it, takes the main thread's stack. Each
+ * sample is counted against its innermost frame outside the JDK, so a cycle that stays slow for
+ * longer counts for more. {@link #report()} prints the hottest frames and clears them.
+ */
+final class StackSampler implements Runnable {
+    private final Thread mainThread;
+    private final long thresholdNs;
+    private final long pollMs;
+    private final int top;
+
+    // Written by the main thread, 0 while nothing is dispatching
+    private volatile long dispatchStartNs = 0;
+
+    // Guarded by this
+    private final HashMap<String, int[]> hotspots = new HashMap<String, int[]>();
+    private int samples = 0;
+    private int slowDispatches = 0;
+
+    /**
+     * Creates a sampler for the calling thread and starts the watchdog.
+     * @param thresholdNs How long a dispatch may run before it is sampled in nanoseconds.
+     * @param top Number of frames to report.
+     */
+    StackSampler(long thresholdNs, int top) {
+        mainThread = Thread.currentThread();
+        this.thresholdNs = thresholdNs;
+        this.pollMs = Math.max(1, thresholdNs / 2_000_000);
+        this.top = top;
+
+        final Thread watchdog = new Thread(this, "NAR_Watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    /**
+     * Marks the start of a dispatch. Call from the main thread.
+     * @param startNs System.nanoTime() at the start.
+     */
+    void begin(long startNs) {
+        dispatchStartNs = startNs;
+    }
+
+    /**
+     * Marks the end of a dispatch. Call from the main thread.
+     */
+    void end() {
+        dispatchStartNs = 0;
+    }
+
+    @Override
+    public void run() {
+        long sampledStartNs = 0;
+        while (true) {
+            try {
+                Thread.sleep(pollMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            final long startNs = dispatchStartNs;
+            if (startNs == 0 || System.nanoTime() - startNs < thresholdNs) continue;
+
+            final StackTraceElement[] stack = mainThread.getStackTrace();
+            // The dispatch may have finished while the stack was taken
+            if (dispatchStartNs != startNs) continue;
+            synchronized (this) {
+                if (startNs != sampledStartNs) slowDispatches++;
+                samples++;
+                final String frame = hotFrame(stack);
+                final int[] count = hotspots.get(frame);
+                if (count == null) hotspots.put(frame, new int[] {1});
+                else count[0]++;
+            }
+            sampledStartNs = startNs;
+        }
+    }
+
+    /**
+     * Prints and logs the hottest frames sampled since the last report, then clears them.
+     */
+    synchronized void report() {
+        if (samples == 0) return;
+        final ArrayList<Map.Entry<String, int[]>> sorted = new ArrayList<Map.Entry<String, int[]>>(hotspots.entrySet());
+        sorted.sort((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+
+        final int count = Math.min(top, sorted.size());
+        final String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            final Map.Entry<String, int[]> hotspot = sorted.get(i);
+            lines[i] = String.format("%5.1f%% %s", 100.0 * hotspot.getValue()[0] / samples, hotspot.getKey());
+        }
+        Log.info("NAR_Robot", String.format("%d slow dispatches, %d stack samples, hottest frames:%n  %s",
+            slowDispatches, samples, String.join(System.lineSeparator() + "  ", lines)));
+        Logger.recordOutput("NAR_Robot/Hotspots", lines);
+
+        hotspots.clear();
+        samples = 0;
+        slowDispatches = 0;
+    }
+
+    /**
+     * Returns the innermost frame that isn't part of the JDK, or the top frame if they all are.
+     */
+    private static String hotFrame(StackTraceElement[] stack) {
+        if (stack.length == 0) return "unknown";
+        for (final StackTraceElement frame : stack) {
+            final String name = frame.getClassName();
+            if (name.startsWith("java.") || name.startsWith("jdk.") || name.startsWith("sun.")) continue;
+            return frame.toString();
+        }
+        return stack[0].toString();
+    }
+}
@@ -0,0 +1,205 @@
+package common.core.misc;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import common.utility.Log;
+import edu.wpi.first.wpilibj.Threads;
+
+/**
+ * Linux scheduling for the robot's threads, used by {@link NAR_Robot#setRealTime(int, int, int)}.
+ * <p>The main thread is given a real-time priority through WPILib and pinned to one core, other
+ * threads whose names start with a registered prefix are pinned to the other core. Affinity is set
+ * with taskset, threads are found by the names Java gives them in /proc/self/task. Only the first
+ * 15 characters of a thread's name are visible there.
+ * <p>Auxiliary threads are looked for on a normal priority daemon thread, since scanning /proc and
+ * running taskset can block for tens of milliseconds and must never happen on the main loop.
+ * <p>Threads inherit the scheduling policy of the thread that starts them, so threads started lazily
+ * by the real-time main thread, like the background tier, would preempt everything else on their
+ * core. Each auxiliary thread found is also set back to SCHED_OTHER with chrt.
+ */
+final class ThreadConfig {
+    private static final Path TASKS = Paths.get("/proc/self/task");
+
+    private final int priority;
+    private final int mainCore;
+    private final int auxiliaryCore;
+    // Added to from the main thread, read by the pinning thread
+    private final CopyOnWriteArrayList<String> prefixes = new CopyOnWriteArrayList<String>();
+    // Only used by the pinning thread
+    private final HashSet<String> pinned = new HashSet<String>();
+
+    /**
+     * Creates a thread configuration.
+     * @param priority Real-time priority of the main thread from 1 to 99, 0 to leave it alone.
+     * @param mainCore Core to pin the main thread to, -1 to leave it alone.
+     * @param auxiliaryCore Core to pin auxiliary threads to, -1 to leave them alone.
+     */
+    ThreadConfig(int priority, int mainCore, int auxiliaryCore) {
+        this.priority = priority;
+        this.mainCore = mainCore;
+        this.auxiliaryCore = auxiliaryCore;
+    }
+
+    /**
+     * Adds a prefix of auxiliary thread names.
+     * @param prefix Start of the thread names.
+     */
+    void addPrefix(String prefix) {
+        prefixes.add(prefix.length() > 15 ? prefix.substring(0, 15) : prefix);
+    }
+
+    /**
+     * Applies the configuration to the calling thread and reports the result. Call from the main thread.
+     */
+    void applyToMainThread() {
+        if (priority > 0 && !Threads.setCurrentThreadPriority(true, priority)) {
+            Log.recoverable("NAR_Robot", "Could not set the main thread to real-time priority " + priority);
+        }
+        final String tid = currentThreadId();
+        if (mainCore >= 0 && tid != null) pin(tid, mainCore);
+
+        Log.info("NAR_Robot", String.format("Main thread %s: %s priority %d, cores %s",
+            tid, Threads.getCurrentThreadIsRealTime() ? "real-time" : "normal",
+            Threads.getCurrentThreadPriority(), allowedCores(tid)));
+    }
+
+    /**
+     * Starts a daemon thread which pins new auxiliary threads and resets their priority every period,
+     * like the dashboard's once a client connects. Call before {@link #applyToMainThread()}, new threads
+     * inherit the real-time policy of the thread that starts them.
+     * @param periodSeconds Time between scans.
+     */
+    void startAuxiliaryPinning(double periodSeconds) {
+        if (auxiliaryCore < 0 && priority <= 0) return;
+        final long periodMs = (long) (periodSeconds * 1000);
+        final Thread thread = new Thread(()-> {
+            while (true) {
+                applyToAuxiliaryThreads();
+                try {
+                    Thread.sleep(periodMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "NAR_ThreadConfig");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Pins auxiliary threads that haven't been pinned yet, only new threads start a taskset process.
+     * Blocks while taskset runs, so only called from the pinning thread.
+     */
+    private void applyToAuxiliaryThreads() {
+        if ((auxiliaryCore < 0 && priority <= 0) || prefixes.isEmpty()) return;
+        for (final String[] thread : threads()) {
+            final String tid = thread[0];
+            final String name = thread[1];
+            if (pinned.contains(tid) || !matches(name)) continue;
+            pinned.add(tid);
+            if (priority > 0) resetPolicy(tid);
+            if (auxiliaryCore >= 0 && pin(tid, auxiliaryCore)) {
+                Log.info("NAR_Robot", String.format("Thread %s %s: cores %s", tid, name, allowedCores(tid)));
+            }
+        }
+    }
+
+    private boolean matches(String name) {
+        for (final String prefix : prefixes) {
+            if (name.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets a thread's CPU affinity.
+     * @return True if taskset succeeded.
+     */
+    private static boolean pin(String tid, int core) {
+        if (run("taskset", "-p", "-c", Integer.toString(core), tid)) return true;
+        Log.recoverable("NAR_Robot", "taskset could not pin thread " + tid + " to core " + core);
+        return false;
+    }
+
+    /**
+     * Sets a thread to the normal SCHED_OTHER policy, undoing a real-time policy it inherited.
+     */
+    private static void resetPolicy(String tid) {
+        if (!run("chrt", "-o", "-p", "0", tid)) {
+            Log.recoverable("NAR_Robot", "chrt could not reset the priority of thread " + tid);
+        }
+    }
+
+    /**
+     * Runs a command and waits for it.
+     * @return True if the command exited successfully.
+     */
+    private static boolean run(String... command) {
+        try {
+            final Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            Log.recoverable("NAR_Robot", "Could not run " + command[0] + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the Linux thread ID of the calling thread, null if it can't be found.
+     */
+    private static String currentThreadId() {
+        try {
+            // /proc/thread-self links to /proc/<pid>/task/<tid>
+            return Files.readSymbolicLink(Paths.get("/proc/thread-self")).getFileName().toString();
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the ID and name of every thread in the process.
+     */
+    private static List<String[]> threads() {
+        final ArrayList<String[]> threads = new ArrayList<String[]>();
+        try (DirectoryStream<Path> tasks = Files.newDirectoryStream(TASKS)) {
+            for (final Path task : tasks) {
+                try {
+                    threads.add(new String[] {task.getFileName().toString(), Files.readString(task.resolve("comm")).trim()});
+                } catch (IOException e) {
+                    // The thread exited while we were looking
+                }
+            }
+        } catch (IOException e) {
+            Log.unusual("NAR_Robot", "Could not list threads: " + e.getMessage());
+        }
+        return threads;
+    }
+
+    /**
+     * Returns the cores a thread may run on, as reported by the kernel.
+     */
+    private static String allowedCores(String tid) {
+        if (tid == null) return "unknown";
+        try {
+            for (final String line : Files.readAllLines(TASKS.resolve(tid).resolve("status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) return line.substring(line.indexOf(':') + 1).trim();
+            }
+        } catch (IOException e) {
+            // Fall through
+        }
+        return "unknown";
+    }
+}
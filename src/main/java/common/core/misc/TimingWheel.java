@@ -0,0 +1,215 @@
+package common.core.misc;
+
+/**
+ * Hashed timing wheel used by {@link NAR_Robot} to dispatch its periodic callbacks.
+ * <p>The wheel is a fixed ring of 1 ms slots. Each slot holds an intrusive, deadline-sorted list
+ * of {@link Callback}s, and a bitmap of occupied slots lets the next deadline be found a word at a
+ * time. Deadlines further away than one rotation simply stay in their slot until the cursor comes
+ * around again. All storage is allocated up front or on registration, so polling and
+ * rescheduling callbacks never allocate.
+ * <p>Not thread-safe, only touch from the robot's main thread.
+ */
+final class TimingWheel {
+    /** Resolution of a slot in microseconds. */
+    static final long TICK_US = 1000;
+    /** Number of slots, one rotation covers 1.024 seconds. */
+    static final int SLOTS = 1024;
+    private static final int MASK = SLOTS - 1;
+
+    private final Callback[] slots = new Callback[SLOTS];
+    private final long[] occupied = new long[SLOTS / Long.SIZE];
+
+    private Callback[] callbacks = new Callback[32];
+    private int size = 0;
+
+    // Callbacks that are due, sorted by deadline
+    private Callback ready;
+
+    // Last tick processed, deadlines are never filed behind it
+    private long cursorTick = 0;
+
+    /**
+     * Adds a new callback to the wheel.
+     * @param callback The callback to schedule.
+     */
+    void register(Callback callback) {
+        if (size == callbacks.length) {
+            final Callback[] grown = new Callback[size * 2];
+            System.arraycopy(callbacks, 0, grown, 0, size);
+            callbacks = grown;
+        }
+        callbacks[size++] = callback;
+        insert(callback);
+    }
+
+    /**
+     * Files a callback into the slot for its current deadline.
+     * @param callback A registered callback that is not currently in the wheel.
+     */
+    void insert(Callback callback) {
+        final long tick = Math.max(callback.expirationUs / TICK_US, cursorTick);
+        final int slot = (int) (tick & MASK);
+
+        // Keep the slot sorted, equal deadlines run by priority then in the order they were filed
+        Callback prev = null;
+        Callback cur = slots[slot];
+        while (cur != null && runsBefore(cur, callback)) {
+            prev = cur;
+            cur = cur.next;
+        }
+        callback.next = cur;
+        callback.slot = slot;
+        if (prev == null) slots[slot] = callback;
+        else prev.next = callback;
+        occupied[slot >>> 6] |= 1L << slot;
+    }
+
+    /**
+     * Removes a callback from the wheel, or from the ready list if it is already due.
+     * @param callback The callback to remove.
+     * @return True if the callback was found.
+     */
+    boolean remove(Callback callback) {
+        if (callback.slot < 0) {
+            Callback prev = null;
+            for (Callback cur = ready; cur != null; prev = cur, cur = cur.next) {
+                if (cur != callback) continue;
+                if (prev == null) ready = cur.next;
+                else prev.next = cur.next;
+                cur.next = null;
+                return true;
+            }
+            return false;
+        }
+        final int slot = callback.slot;
+        Callback prev = null;
+        for (Callback cur = slots[slot]; cur != null; prev = cur, cur = cur.next) {
+            if (cur != callback) continue;
+            if (prev == null) slots[slot] = cur.next;
+            else prev.next = cur.next;
+            if (slots[slot] == null) occupied[slot >>> 6] &= ~(1L << slot);
+            cur.next = null;
+            cur.slot = -1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next callback whose deadline has passed.
+     * <p>The callback is detached from the wheel, call {@link #insert(Callback)} once it has been
+     * rescheduled.
+     * @param nowUs The current time in microseconds.
+     * @return The most overdue callback, or null if nothing is due.
+     */
+    Callback poll(long nowUs) {
+        // Cheap when the cursor is already at nowUs, only the current slot is checked
+        collect(nowUs);
+        final Callback callback = ready;
+        if (callback == null || callback.expirationUs > nowUs) return null;
+        ready = callback.next;
+        callback.next = null;
+        return callback;
+    }
+
+    /**
+     * Returns the earliest deadline in the wheel.
+     * @return Deadline in microseconds.
+     */
+    long nextExpiration() {
+        long earliest = ready != null ? ready.expirationUs : Long.MAX_VALUE;
+        int i = 0;
+        while (i < SLOTS) {
+            final long tick = cursorTick + i;
+            final int slot = (int) (tick & MASK);
+            final long word = occupied[slot >>> 6] >>> (slot & 63);
+            if (word == 0) {
+                i += 64 - (slot & 63);
+                continue;
+            }
+            final int skip = Long.numberOfTrailingZeros(word);
+            i += skip;
+            if (i >= SLOTS) break;
+
+            // The head is the slot's earliest deadline, if it is a later rotation so is the rest
+            final Callback head = slots[(int) ((cursorTick + i) & MASK)];
+            if (head.expirationUs / TICK_US <= cursorTick + i) {
+                return Math.min(earliest, head.expirationUs);
+            }
+            i++;
+        }
+        // Every callback is at least a rotation away
+        for (int j = 0; j < size; j++) {
+            if (callbacks[j].slot >= 0) earliest = Math.min(earliest, callbacks[j].expirationUs);
+        }
+        return earliest;
+    }
+
+    /**
+     * Returns the number of registered callbacks.
+     * @return Number of callbacks.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns a registered callback.
+     * @param index Index from 0 to {@link #size()}, in registration order.
+     * @return The callback.
+     */
+    Callback get(int index) {
+        return callbacks[index];
+    }
+
+    /**
+     * Moves every due callback from the slots the cursor passed into the ready list.
+     * @param nowUs The current time in microseconds.
+     */
+    private void collect(long nowUs) {
+        final long nowTick = nowUs / TICK_US;
+        final long ticks = Math.min(Math.max(nowTick - cursorTick, 0) + 1, SLOTS);
+        for (long t = 0; t < ticks; t++) {
+            final int slot = (int) ((cursorTick + t) & MASK);
+            if ((occupied[slot >>> 6] & (1L << slot)) == 0) continue;
+
+            Callback head = slots[slot];
+            while (head != null && head.expirationUs <= nowUs) {
+                final Callback due = head;
+                head = head.next;
+                due.slot = -1;
+                addReady(due);
+            }
+            slots[slot] = head;
+            if (head == null) occupied[slot >>> 6] &= ~(1L << slot);
+        }
+        cursorTick = Math.max(cursorTick, nowTick);
+    }
+
+    /**
+     * Inserts a callback into the ready list, keeping it sorted by deadline.
+     * @param callback A callback detached from its slot.
+     */
+    private void addReady(Callback callback) {
+        Callback prev = null;
+        Callback cur = ready;
+        while (cur != null && runsBefore(cur, callback)) {
+            prev = cur;
+            cur = cur.next;
+        }
+        callback.next = cur;
+        if (prev == null) ready = callback;
+        else prev.next = callback;
+    }
+
+    /**
+     * Returns whether a filed callback stays ahead of a new one.
+     * @param filed A callback already in a list.
+     * @param callback The callback being filed.
+     * @return True if filed runs first.
+     */
+    private static boolean runsBefore(Callback filed, Callback callback) {
+        if (filed.expirationUs != callback.expirationUs) return filed.expirationUs < callback.expirationUs;
+        return filed.priority.compareTo(callback.priority) <= 0;
+    }
+}
@@ -0,0 +1,130 @@
+package common.core.misc;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import org.littletonrobotics.junction.Logger;
+
+import common.utility.Log;
+
+/**
+ * Runs registered hot paths with synthetic inputs while the robot is disabled so the JIT compiles
+ * them before the match, used by {@link NAR_Robot#addWarmUp(String, Runnable)}.
+ * <p>Routines run round robin for a fixed budget each cycle. Compilation is considered settled once
+ * the JIT has spent less than 1% of the time compiling for 3 seconds in a row, after which nothing
+ * runs anymore. If the JVM doesn't report compilation time, warm-up stops after 10 seconds instead.
+ */
+final class WarmUp {
+    private static final long WINDOW_NS = 1_000_000_000L;
+    private static final int SETTLED_WINDOWS = 3;
+    private static final long FALLBACK_NS = 10_000_000_000L;
+
+    private final ArrayList<String> names = new ArrayList<String>();
+    private final ArrayList<Runnable> routines = new ArrayList<Runnable>();
+    private final CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+    private final boolean monitored = compiler != null && compiler.isCompilationTimeMonitoringSupported();
+
+    private final long budgetNs;
+    private int next = 0;
+    private long runs = 0;
+    private long warmNs = 0;
+
+    private long windowStartNs = 0;
+    private long windowCompileMs = 0;
+    private int quietWindows = 0;
+    private boolean settled = false;
+
+    /**
+     * Creates an empty warm-up.
+     * @param budgetNs How long to run routines each cycle in nanoseconds.
+     */
+    WarmUp(long budgetNs) {
+        this.budgetNs = budgetNs;
+    }
+
+    /**
+     * Adds a routine.
+     * @param name Name the routine is reported under.
+     * @param routine Code to warm up, must not command any actuators.
+     */
+    void add(String name, Runnable routine) {
+        names.add(name);
+        routines.add(routine);
+        // New code to compile
+        settled = false;
+        quietWindows = 0;
+    }
+
+    /**
+     * Returns the number of routines.
+     * @return How many routines were added.
+     */
+    int size() {
+        return routines.size();
+    }
+
+    /**
+     * Returns whether compilation has settled.
+     * @return True once warm-up is done.
+     */
+    boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * Runs routines for one cycle's budget. Call from the main thread while disabled.
+     */
+    void run() {
+        if (settled || routines.isEmpty()) return;
+
+        final long startNs = System.nanoTime();
+        if (windowStartNs == 0) startWindow(startNs);
+
+        // At least one routine a cycle, even if it takes longer than the budget
+        final long endNs = startNs + budgetNs;
+        do {
+            if (next >= routines.size()) next = 0;
+            final int i = next++;
+            try {
+                routines.get(i).run();
+                runs++;
+            } catch (RuntimeException e) {
+                Log.recoverable("NAR_Robot", "Warm-up " + names.get(i) + " threw " + e + ", removing it");
+                names.remove(i);
+                routines.remove(i);
+                if (routines.isEmpty()) return;
+            }
+        } while (System.nanoTime() < endNs);
+
+        final long nowNs = System.nanoTime();
+        warmNs += nowNs - startNs;
+        if (nowNs - windowStartNs >= WINDOW_NS) checkSettled(nowNs);
+    }
+
+    private void checkSettled(long nowNs) {
+        if (!monitored) {
+            if (warmNs >= FALLBACK_NS) settle(nowNs);
+            startWindow(nowNs);
+            return;
+        }
+        final long compileMs = compiler.getTotalCompilationTime() - windowCompileMs;
+        Logger.recordOutput("NAR_Robot/WarmUp/CompilationMs", compileMs);
+        quietWindows = compileMs * 1e6 < (nowNs - windowStartNs) * 0.01 ? quietWindows + 1 : 0;
+        if (quietWindows >= SETTLED_WINDOWS) settle(nowNs);
+        startWindow(nowNs);
+    }
+
+    private void startWindow(long nowNs) {
+        windowStartNs = nowNs;
+        if (monitored) windowCompileMs = compiler.getTotalCompilationTime();
+    }
+
+    private void settle(long nowNs) {
+        settled = true;
+        Logger.recordOutput("NAR_Robot/WarmUp/Settled", true);
+        Log.info("NAR_Robot", String.format("Warm-up settled after %.1fs of warm-up time, %d runs of %s%s",
+            warmNs / 1e9, runs, String.join(", ", names),
+            monitored ? String.format(", %.1fs compiling in total", compiler.getTotalCompilationTime() / 1e3) : ""));
+    }
+}
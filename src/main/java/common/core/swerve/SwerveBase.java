@@ -1,8 +1,11 @@
 package common.core.swerve;
 
+import org.littletonrobotics.junction.AutoLog;
 import org.littletonrobotics.junction.Logger;
 
+import common.core.misc.NAR_Robot;
 import common.hardware.motorcontroller.NAR_Motor.Control;
+import common.utility.LogPolicy;
 import common.utility.shuffleboard.NAR_Shuffleboard;
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
@@ -24,6 +27,17 @@ import edu.wpi.first.wpilibj2.command.SubsystemBase;
  */
 public abstract class SwerveBase extends SubsystemBase {
 
+    private static final LogPolicy.Key desiredStatesKey = LogPolicy.key("Swerve/DesiredModuleStates");
+    private static final LogPolicy.Key actualStatesKey = LogPolicy.key("Swerve/ActualModuleStates");
+    private static final LogPolicy.Key rotationKey = LogPolicy.key("Swerve/RobotRotation");
+
+    @AutoLog
+    public static class SwerveIO {
+        public double yaw = 0;
+        public double pitch = 0;
+        public double roll = 0;
+    }
+
     public boolean chassisVelocityCorrection = true;
 
     protected final SwerveDriveKinematics kinematics;
@@ -31,6 +45,9 @@ public abstract class SwerveBase extends SubsystemBase {
     protected final SwerveModule[] modules;
     private Pose2d estimatedPose;
     private boolean useShuffleboard = false;
+    private final SwerveIOAutoLogged io = new SwerveIOAutoLogged();
+    // False until the first inputs are processed, the loop getter reads the gyro until then
+    private boolean inputsRead = false;
 
     public boolean fieldRelative;
     public double maxSpeed;
@@ -53,6 +70,31 @@ public abstract class SwerveBase extends SubsystemBase {
 
         odometry = new SwerveDrivePoseEstimator(kinematics, new Rotation2d(), getPositions(),
                                                 estimatedPose, stateStdDevs, visionMeasurementDevs);
+
+        NAR_Robot.addInputs(()-> {
+            // When replaying a log the gyro comes from the log instead
+            if (!Logger.hasReplaySource()) {
+                io.yaw = getYaw();
+                io.pitch = getPitch();
+                io.roll = getRoll();
+            }
+            Logger.processInputs("Swerve/Gyro", io);
+            inputsRead = true;
+        });
+        NAR_Robot.addWarmUp("SwerveBase", this::warmUp);
+    }
+
+    /**
+     * Runs the math drive and the velocity getters use without touching the modules or odometry.
+     */
+    private void warmUp() {
+        for (int i = 0; i < 20; i++) {
+            final ChassisSpeeds velocity = correctVelocity(ChassisSpeeds.fromFieldRelativeSpeeds(
+                maxSpeed * 0.5, maxSpeed * 0.25, 1 + i * 0.1, Rotation2d.fromDegrees(i * 18)));
+            final SwerveModuleState[] states = kinematics.toSwerveModuleStates(velocity);
+            SwerveDriveKinematics.desaturateWheelSpeeds(states, maxSpeed);
+            kinematics.toChassisSpeeds(states);
+        }
     }
 
     public void initShuffleboard() {
@@ -75,17 +117,26 @@ public abstract class SwerveBase extends SubsystemBase {
 
     public void drive(ChassisSpeeds velocity) {
         if (chassisVelocityCorrection) {
-            double dtConstant = 0.009;
-            Pose2d robotPoseVel = new Pose2d(velocity.vxMetersPerSecond * dtConstant,
-                                            velocity.vyMetersPerSecond * dtConstant,
-                                            Rotation2d.fromRadians(velocity.omegaRadiansPerSecond * dtConstant));
-            Twist2d twistVel = PoseLog(robotPoseVel);
-
-            velocity = new ChassisSpeeds(twistVel.dx / dtConstant, twistVel.dy / dtConstant,
-                                        twistVel.dtheta / dtConstant);
+            velocity = correctVelocity(velocity);
         }
         setModuleStates(kinematics.toSwerveModuleStates(velocity));
-        Logger.recordOutput("Swerve/DesiredModuleStates", kinematics.toSwerveModuleStates(velocity));
+        if (desiredStatesKey.shouldRecord()) Logger.recordOutput(desiredStatesKey.name, kinematics.toSwerveModuleStates(velocity));
+    }
+
+    /**
+     * Corrects a chassis velocity for the skew caused by rotating while translating.
+     * @param velocity Desired robot relative velocity.
+     * @return Velocity that drives the desired path over one loop.
+     */
+    static ChassisSpeeds correctVelocity(ChassisSpeeds velocity) {
+        double dtConstant = 0.009;
+        Pose2d robotPoseVel = new Pose2d(velocity.vxMetersPerSecond * dtConstant,
+                                        velocity.vyMetersPerSecond * dtConstant,
+                                        Rotation2d.fromRadians(velocity.omegaRadiansPerSecond * dtConstant));
+        Twist2d twistVel = PoseLog(robotPoseVel);
+
+        return new ChassisSpeeds(twistVel.dx / dtConstant, twistVel.dy / dtConstant,
+                                    twistVel.dtheta / dtConstant);
     }
 
     /**
@@ -183,8 +234,8 @@ public abstract class SwerveBase extends SubsystemBase {
     public void periodic() {
         odometry.update(getGyroRotation2d(), getPositions());
         estimatedPose = odometry.getEstimatedPosition();
-        Logger.recordOutput("Swerve/ActualModuleStates", getStates());
-        Logger.recordOutput("Swerve/RobotRotation", getGyroRotation2d());
+        if (actualStatesKey.shouldRecord()) Logger.recordOutput(actualStatesKey.name, getStates());
+        if (rotationKey.shouldRecord()) Logger.recordOutput(rotationKey.name, getGyroRotation2d());
         if (useShuffleboard) {
             final ChassisSpeeds robotVelocity = getRobotVelocity();
             NAR_Shuffleboard.addData("Swerve", "Robot Velocity", robotVelocity.toString(), 3, 1, 4, 1);
@@ -211,8 +262,24 @@ public abstract class SwerveBase extends SubsystemBase {
 
     public abstract double getYaw();
 
+    /**
+     * Returns the gyro's current yaw.
+     * <p>When replaying a log there is no gyro, so the logged yaw is returned.
+     * @return Robot rotation from the gyro.
+     */
     public Rotation2d getGyroRotation2d() {
-        return Rotation2d.fromDegrees(getYaw());
+        return Rotation2d.fromDegrees(Logger.hasReplaySource() ? io.yaw : getYaw());
+    }
+
+    /**
+     * Returns the gyro's yaw logged at the start of the loop.
+     * <p>Code reading this instead of {@link #getGyroRotation2d()} sees the same values when a log is
+     * replayed. Reads the gyro until the first loop has run, {@link #zeroGyro(double)} shows up the next loop.
+     * @return Robot rotation from the gyro.
+     */
+    public Rotation2d getLoopGyroRotation2d() {
+        if (!inputsRead) return getGyroRotation2d();
+        return Rotation2d.fromDegrees(io.yaw);
     }
 
     //DONT USE THIS METHOD, it relies on the bad april tag angle measurements
@@ -1,5 +1,6 @@
 package common.hardware.camera;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.HashMap;
 import java.util.List;
@@ -10,13 +11,19 @@ import java.util.function.Supplier;
 import org.photonvision.PhotonCamera;
 import org.photonvision.targeting.PhotonPipelineResult;
 import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+import common.core.misc.NAR_Robot;
+import common.utility.LogPolicy;
 
 import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.geometry.Transform2d;
 import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.math.util.Units;
 
 import org.littletonrobotics.junction.Logger;
@@ -32,6 +39,7 @@ import org.littletonrobotics.junction.Logger;
 public class NAR_Camera extends PhotonCamera {
 
     public final Camera camera;
+    private final LogPolicy.Key poseKey;
 
     private PhotonPipelineResult result;
 
@@ -52,6 +60,10 @@ public class NAR_Camera extends PhotonCamera {
     private final double FIELD_X_LENGTH = Units.inchesToMeters(648);
     private final double FIELD_Y_LENGTH = Units.inchesToMeters(324);
 
+    // Target 2 meters in front of the camera, facing it
+    private static final Transform3d WARM_UP_TRANSFORM = new Transform3d(new Translation3d(2, 0.3, 0.5), new Rotation3d(0, 0, Math.PI - 0.1));
+    private static final List<TargetCorner> WARM_UP_CORNERS = Collections.nCopies(4, new TargetCorner(0, 0));
+
     /**
      * Creates a NAR_Camera object.
      * 
@@ -60,7 +72,24 @@ public class NAR_Camera extends PhotonCamera {
     public NAR_Camera(Camera camera) {
         super(camera.name);
         this.camera = camera;
+        poseKey = LogPolicy.key("Vision/" + camera.name);
         setVersionCheckEnabled(false);
+        NAR_Robot.addWarmUp("NAR_Camera " + camera.name, this::warmUp);
+    }
+
+    /**
+     * Runs the pose estimate on a made up target without sending it to odometry.
+     */
+    private void warmUp() {
+        if (aprilTags == null || aprilTags.isEmpty()) return;
+
+        // Only passed to the helpers, so targets seen by update() are never touched
+        final PhotonTrackedTarget target = new PhotonTrackedTarget(0, 0, 0, 0, aprilTags.keySet().iterator().next(),
+            WARM_UP_TRANSFORM, WARM_UP_TRANSFORM, 0.1, WARM_UP_CORNERS, WARM_UP_CORNERS);
+        for (int i = 0; i < 10; i++) {
+            translationOutOfBounds(getPos(target).getTranslation());
+            isValidTarget(target);
+        }
     }
 
     /**
@@ -114,6 +143,9 @@ public class NAR_Camera extends PhotonCamera {
         //Don't update if camera is disabled
         if (!camera.enabled) return;
 
+        //decided once so every pose from this frame is logged or none are
+        final boolean record = poseKey.shouldRecord();
+
         //returns the most recent camera frame
         result = this.getLatestResult();
 
@@ -121,20 +153,21 @@ public class NAR_Camera extends PhotonCamera {
         if (!result.hasTargets()) {
             targets = null;
             bestTarget = null;
-            Logger.recordOutput("Vision/" + camera.name, poseSupplier.get());
+            if (record) Logger.recordOutput(poseKey.name, poseSupplier.get());
             return;
         }
 
         targets = result.getTargets();
         bestTarget = result.getBestTarget();
 
-        updatePose();
+        updatePose(record);
     }
 
     /**
      * Sends the camera's pose estimate.
+     * @param record Whether to log the poses sent.
      */
-    private void updatePose() {
+    private void updatePose(boolean record) {
         final LinkedList<Pose2d> possiblePoses = new LinkedList<Pose2d>();
         final LinkedList<PhotonTrackedTarget> possibleTargets = new LinkedList<PhotonTrackedTarget>();
 
@@ -154,7 +187,7 @@ public class NAR_Camera extends PhotonCamera {
             if (!multipleTargets) break;
         }
 
-        if(possiblePoses.isEmpty()) Logger.recordOutput("Vision/" + camera.name, poseSupplier.get());
+        if(possiblePoses.isEmpty() && record) Logger.recordOutput(poseKey.name, poseSupplier.get());
 
         // updates robot with all acceptable poses from possiblePoses
         for (final Pose2d curPos : possiblePoses) {
@@ -162,7 +195,7 @@ public class NAR_Camera extends PhotonCamera {
             odometry.accept(curPos, result.getTimestampSeconds());
 
             int index = possiblePoses.indexOf(curPos);
-            Logger.recordOutput("Vision/" + camera.name, aprilTags.get(targetId(possibleTargets.get(index))));
+            if (record) Logger.recordOutput(poseKey.name, aprilTags.get(targetId(possibleTargets.get(index))));
         }
     }
 
@@ -209,7 +242,7 @@ public class NAR_Camera extends PhotonCamera {
      * @return The distance in meters.
      */
     private double getDistance(PhotonTrackedTarget target) {
-        if (!hasTarget()) return -1;
+        if (target == null) return -1;
 
         final Transform2d transform = getRelTarget(target);
         return Math.hypot(transform.getX(), transform.getY());
@@ -229,7 +262,7 @@ public class NAR_Camera extends PhotonCamera {
      * @return The target ID as an integer.
      */
     private int targetId(PhotonTrackedTarget target) {
-        return hasTarget() ? target.getFiducialId() : 0;
+        return target != null ? target.getFiducialId() : 0;
     }
     /**
      * Returns the ambiguity of the best target with lower being more accurate.
@@ -245,7 +278,7 @@ public class NAR_Camera extends PhotonCamera {
      * @return A value from 0.0 to 1.0 representing the accuracy of the target.
      */
     private double targetAmbiguity(PhotonTrackedTarget target) {
-        return hasTarget() ? target.getPoseAmbiguity() : 0;
+        return target != null ? target.getPoseAmbiguity() : 0;
     }
 
     /**
@@ -262,7 +295,7 @@ public class NAR_Camera extends PhotonCamera {
      * @return Transform3d with coordinate system relative to camera.
      */
     private Transform3d getTarget3d(PhotonTrackedTarget target) {
-        return hasTarget() ? target.getBestCameraToTarget() : new Transform3d();
+        return target != null ? target.getBestCameraToTarget() : new Transform3d();
     }
 
     /**
@@ -283,7 +316,7 @@ public class NAR_Camera extends PhotonCamera {
      * @return Transform2d with coordinate system relative to camera.
      */
     private Transform2d getRelTarget(PhotonTrackedTarget target) {
-        if (!hasTarget()) return new Transform2d();
+        if (target == null) return new Transform2d();
 
         final Transform3d transform = getTarget3d(target);
 
@@ -312,7 +345,7 @@ public class NAR_Camera extends PhotonCamera {
      */
     private Transform2d getAccTarget(PhotonTrackedTarget target) {
         // if no valid target, return empty Transform2d
-        if (!hasTarget() || !aprilTags.containsKey(targetId(target))) return new Transform2d();
+        if (target == null || !aprilTags.containsKey(targetId(target))) return new Transform2d();
 
         // angle of the AprilTag relative to the camera
         final Rotation2d relTargetAngle;
@@ -354,7 +387,7 @@ public class NAR_Camera extends PhotonCamera {
         final Pose2d AprilTag = aprilTags.get(targetId(target));
 
         // if no valid target, return empty Pose2d
-        if (!hasTarget() || !aprilTags.containsKey(targetId(target)) || target == null) return new Pose2d();
+        if (target == null || !aprilTags.containsKey(targetId(target))) return new Pose2d();
 
         // vector from target to camera rel to target coordinate system
         final Transform2d transform = getAccTarget(target);
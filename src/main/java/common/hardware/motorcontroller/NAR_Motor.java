@@ -65,7 +65,7 @@ public abstract class NAR_Motor implements AutoCloseable{
     
 
     static {
-        NAR_Robot.addPeriodic(()-> {
+        NAR_Robot.addPeriodic("MotorFollowers", ()-> {
             for (final NAR_Motor leader : leaders) {
                 final double output = leader.getAppliedOutput();
                 for (final NAR_Motor follower : leader.followers) {
@@ -91,23 +91,31 @@ public abstract class NAR_Motor implements AutoCloseable{
         public double appliedOutput = 0;
         public double stallCurrent = 0;
         public double velocity = 0;
+        public double position = 0;
 	}
 
     private NAR_MotorIOAutoLogged io;
+    // False until the first inputs are processed, the loop getters read the motor until then
+    private boolean inputsRead = false;
 
     public void updateIO(NAR_MotorIOAutoLogged io){
         io.inputPower = prevValue;
         io.appliedOutput = getAppliedOutput();
         io.stallCurrent = getStallCurrent();
-        io.velocity = getVelocity();
+        io.velocity = getRawVelocity() * unitConversionFactor / timeConversionFactor;
+        io.position = getRawPosition() * unitConversionFactor;
     }
 
     public NAR_Motor(int id){
         io = new NAR_MotorIOAutoLogged();
-        NAR_Robot.addPeriodic(()-> {
-            updateIO(io);
-            Logger.processInputs("Motors/" + id, io);
-        }, 0.02);
+        final String ioKey = "Motors/" + id;
+        // Position and velocity are read from the inputs, so they're updated every loop and never decimated
+        NAR_Robot.addInputs(()-> {
+            // When replaying a log the inputs come from the log instead
+            if (!Logger.hasReplaySource()) updateIO(io);
+            Logger.processInputs(ioKey, io);
+            inputsRead = true;
+        });
     }
 
     /**
@@ -155,7 +163,7 @@ public abstract class NAR_Motor implements AutoCloseable{
                 break;
             case Position:
                 if (isContinuous) {
-                    final double position = getRawPosition() * unitConversionFactor;
+                    final double position = Logger.hasReplaySource() ? io.position : getRawPosition() * unitConversionFactor;
                     final double errorBound = (maxInput - minInput) / 2.0;
                     final double error = convertInput(value) - convertInput(position);
                     final double delta = MathUtil.inputModulus(error, -errorBound, errorBound);
@@ -208,6 +216,9 @@ public abstract class NAR_Motor implements AutoCloseable{
      * @param conversionFactor Conversion factor to change position units
      */
     public void setUnitConversionFactor(double conversionFactor) {
+        // Keeps the last inputs in the new units until the next loop reads them
+        io.position *= conversionFactor / unitConversionFactor;
+        io.velocity *= conversionFactor / unitConversionFactor;
         this.unitConversionFactor = conversionFactor;
     }
 
@@ -216,6 +227,7 @@ public abstract class NAR_Motor implements AutoCloseable{
      * @param conversionFactor Conversion factor to change time units
      */
     public void setTimeConversionFactor(double conversionFactor) {
+        io.velocity *= timeConversionFactor / conversionFactor;
         this.timeConversionFactor = conversionFactor;
     }
 
@@ -273,21 +285,47 @@ public abstract class NAR_Motor implements AutoCloseable{
 
     /**
      * Returns the current motor position, default unit - rotations
+     * <p>When replaying a log there is no motor, so the logged position is returned.
      * @return Double measuring motor position
      */
     public double getPosition() {
-        final double position = getRawPosition() * unitConversionFactor;
-        return convertInput(position);
+        if (Logger.hasReplaySource()) return convertInput(io.position);
+        return convertInput(getRawPosition() * unitConversionFactor);
     }
 
     /**
      * Returns the current motor velocity, default unit - RPM
+     * <p>When replaying a log there is no motor, so the logged velocity is returned.
      * @return Double measuring motor velocity
      */
     public double getVelocity() {
+        if (Logger.hasReplaySource()) return io.velocity;
         return getRawVelocity() * unitConversionFactor / timeConversionFactor;
     }
 
+    /**
+     * Returns the motor position logged at the start of the loop, default unit - rotations
+     * <p>Code reading this instead of {@link #getPosition()} sees the same values when a log is replayed.
+     * Reads the motor until the first loop has run, changes from {@link #resetPosition(double)} show up
+     * the next loop.
+     * @return Double measuring motor position
+     */
+    public double getLoopPosition() {
+        if (!inputsRead) return getPosition();
+        return convertInput(io.position);
+    }
+
+    /**
+     * Returns the motor velocity logged at the start of the loop, default unit - RPM
+     * <p>Code reading this instead of {@link #getVelocity()} sees the same values when a log is replayed.
+     * Reads the motor until the first loop has run.
+     * @return Double measuring motor velocity
+     */
+    public double getLoopVelocity() {
+        if (!inputsRead) return getVelocity();
+        return io.velocity;
+    }
+
     /**
      * Returns the motor position in rotations
      * @return Double measuring motor position
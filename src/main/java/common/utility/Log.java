@@ -1,8 +1,107 @@
 package common.utility;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.littletonrobotics.junction.Logger;
+
 import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotController;
 
+/**
+ * Team 3128's console logger.
+ * <p>Logging never formats or prints on the calling thread. Messages are put in a fixed ring of
+ * preallocated records, which any number of threads fill without locking, and a background thread
+ * formats and prints them. If the ring is full the message is dropped instead of blocking the
+ * caller, and the number of dropped messages is printed once there is room again.
+ * <p>Each category has a minimum {@link Level}, which can be changed at runtime. Messages below it
+ * are skipped before anything is built, and the {@link Supplier} and format overloads defer building
+ * the message until it is known to be needed.
+ * <p>Every severity is rate limited per category and message, so one error repeating every loop
+ * can't flood the console or the driver station. Repeats past the limit are counted and summarized.
+ * <p>Once recording is enabled, printed lines are also handed to the main thread, which writes them
+ * to the AdvantageKit log under "Log/&lt;category&gt;" in the loop cycle it takes them, each line
+ * starting with the time it was logged.
+ */
 public class Log {
+	/**
+	 * Message severities, from least to most important.
+	 */
+	public enum Level {
+		DEBUG("Debug"),
+		INFO("Info"),
+		UNUSUAL("Unusual"),
+		RECOVERABLE("Recoverable"),
+		FATAL("Fatal");
+
+		final String label;
+
+		private Level(String label) {
+			this.label = label;
+		}
+	}
+
+	/**
+	 * A slot in the ring.
+	 */
+	private static final class Record {
+		String severity;
+		String category;
+		String message;
+		Object[] args;
+		long nanos;
+	}
+
+	private static volatile Level defaultLevel = Level.INFO;
+	private static final Map<String, Level> categoryLevels = new ConcurrentHashMap<String, Level>();
+	// Lowest level enabled in any category, so most disabled messages are rejected with one comparison
+	private static volatile int lowestEnabled = Level.INFO.ordinal();
+
+	private static final int CAPACITY = 1024;
+	private static final int MASK = CAPACITY - 1;
+
+	private static final Record[] records = new Record[CAPACITY];
+	// Each slot's sequence, equal to the position a producer may claim or one past the position the consumer may read
+	private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+	private static final AtomicLong head = new AtomicLong();
+	private static final AtomicLong dropped = new AtomicLong();
+	private static long tail = 0;
+	private static long reportedDropped = 0;
+	private static long lastSummaryNs = System.nanoTime();
+
+	private static final LogLimiter limiter = new LogLimiter();
+
+	private static volatile boolean recording = false;
+	// Category and line pairs waiting for the main thread
+	private static final ArrayBlockingQueue<String[]> recordQueue = new ArrayBlockingQueue<String[]>(CAPACITY);
+	private static long fpgaOffsetUs;
+	// Only used by the main thread
+	private static final Map<String, ArrayList<String>> recordBatches = new HashMap<String, ArrayList<String>>();
+	private static final Map<String, String> recordKeys = new HashMap<String, String>();
+	private static final String[] EMPTY = new String[0];
+
+	private static final Thread consumer;
+
+	static {
+		for (int i = 0; i < CAPACITY; i++) {
+			records[i] = new Record();
+			sequences.set(i, i);
+		}
+		consumer = new Thread(Log::drainForever, "NAR_Log");
+		consumer.setDaemon(true);
+		consumer.start();
+		// Print whatever is left when the program exits
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "NAR_LogFlush"));
+	}
+
 	/**
 	 * Log a FATAL error, after which the robot cannot (properly) function. <br>
 	 * 
@@ -10,7 +109,8 @@ public class Log {
 	 * @param message
 	 */
 	public static void fatal(String category, String message) {
-		log("Fatal", category, message);
+		if (!limiter.tryAcquire(Level.FATAL, category, message)) return;
+		if (isEnabled(category, Level.FATAL)) enqueue(Level.FATAL.label, category, message, null);
 
 		// make it show up on the DS as well
 		DriverStation.reportError("Fatal Error: " + message, true);
@@ -25,7 +125,8 @@ public class Log {
 	public static void fatalException(String category, String userMessage, Exception exception) {
 		String exceptionMessage = String.format("%s -- %s: %s", userMessage, exception.getClass().getSimpleName(),
 				exception.getMessage());
-		log("Fatal", category, exceptionMessage);
+		if (!limiter.tryAcquire(Level.FATAL, category, exceptionMessage)) return;
+		if (isEnabled(category, Level.FATAL)) enqueue(Level.FATAL.label, category, exceptionMessage, null);
 
 		exception.printStackTrace();
 
@@ -41,7 +142,8 @@ public class Log {
 	 * @param message
 	 */
 	public static void recoverable(String category, String message) {
-		log("Recoverable", category, message);
+		if (!limiter.tryAcquire(Level.RECOVERABLE, category, message)) return;
+		if (isEnabled(category, Level.RECOVERABLE)) enqueue(Level.RECOVERABLE.label, category, message, null);
 
 		DriverStation.reportError("Error: " + (message == null ? "null" : message), true);
 
@@ -55,7 +157,28 @@ public class Log {
 	 * @param message
 	 */
 	public static void unusual(String category, String message) {
-		log("Unusual", category, message);
+		if (isEnabled(category, Level.UNUSUAL)) log(Level.UNUSUAL, category, message);
+	}
+
+	/**
+	 * Log something unusual, only building the message if the category logs unusual messages.
+	 * 
+	 * @param category
+	 * @param message
+	 */
+	public static void unusual(String category, Supplier<String> message) {
+		if (isEnabled(category, Level.UNUSUAL)) log(Level.UNUSUAL, category, message.get());
+	}
+
+	/**
+	 * Log something unusual, formatted on the logging thread with {@link String#format}.
+	 * 
+	 * @param category
+	 * @param format
+	 * @param args Values which won't change after this call
+	 */
+	public static void unusual(String category, String format, Object... args) {
+		if (isEnabled(category, Level.UNUSUAL)) log(Level.UNUSUAL, category, format, args);
 	}
 
 	/**
@@ -63,7 +186,28 @@ public class Log {
 	 * indicate anything is broken.
 	 */
 	public static void info(String category, String message) {
-		log("Info", category, message);
+		if (isEnabled(category, Level.INFO)) log(Level.INFO, category, message);
+	}
+
+	/**
+	 * Log a semi-important message, only building it if the category logs info messages.
+	 * 
+	 * @param category
+	 * @param message
+	 */
+	public static void info(String category, Supplier<String> message) {
+		if (isEnabled(category, Level.INFO)) log(Level.INFO, category, message.get());
+	}
+
+	/**
+	 * Log a semi-important message, formatted on the logging thread with {@link String#format}.
+	 * 
+	 * @param category
+	 * @param format
+	 * @param args Values which won't change after this call
+	 */
+	public static void info(String category, String format, Object... args) {
+		if (isEnabled(category, Level.INFO)) log(Level.INFO, category, format, args);
 	}
 
 	/**
@@ -74,10 +218,227 @@ public class Log {
 	 * @param message
 	 */
 	public static void debug(String category, String message) {
-		log("Debug", category, message);
+		if (isEnabled(category, Level.DEBUG)) log(Level.DEBUG, category, message);
+	}
+
+	/**
+	 * Log a debug message, only building it if the category logs debug messages.
+	 * 
+	 * @param category
+	 * @param message
+	 */
+	public static void debug(String category, Supplier<String> message) {
+		if (isEnabled(category, Level.DEBUG)) log(Level.DEBUG, category, message.get());
+	}
+
+	/**
+	 * Log a debug message, formatted on the logging thread with {@link String#format}.
+	 * 
+	 * @param category
+	 * @param format
+	 * @param args Values which won't change after this call
+	 */
+	public static void debug(String category, String format, Object... args) {
+		if (isEnabled(category, Level.DEBUG)) log(Level.DEBUG, category, format, args);
+	}
+
+	/**
+	 * Returns whether messages of a level are logged for a category.
+	 * @param category Category of the message.
+	 * @param level Level of the message.
+	 * @return Whether the message would be logged.
+	 */
+	public static boolean isEnabled(String category, Level level) {
+		if (level.ordinal() < lowestEnabled) return false;
+		if (categoryLevels.isEmpty()) return true;
+		final Level threshold = categoryLevels.get(category);
+		return level.ordinal() >= (threshold == null ? defaultLevel : threshold).ordinal();
+	}
+
+	/**
+	 * Sets the minimum level logged by categories without their own level, {@link Level#INFO} by default.
+	 * <p>Fatal and recoverable errors are always reported to the driver station.
+	 * @param level Lowest level to log.
+	 */
+	public static synchronized void setLevel(Level level) {
+		defaultLevel = level;
+		updateLowestEnabled();
+	}
+
+	/**
+	 * Sets the minimum level logged by one category.
+	 * @param category Category to change.
+	 * @param level Lowest level to log, or null to use the default level again.
+	 */
+	public static synchronized void setLevel(String category, Level level) {
+		if (level == null) categoryLevels.remove(category);
+		else categoryLevels.put(category, level);
+		updateLowestEnabled();
+	}
+
+	/**
+	 * Returns the minimum level logged by a category.
+	 * @param category Category to check.
+	 * @return Lowest level logged.
+	 */
+	public static Level getLevel(String category) {
+		final Level threshold = categoryLevels.get(category);
+		return threshold == null ? defaultLevel : threshold;
+	}
+
+	private static void updateLowestEnabled() {
+		int lowest = defaultLevel.ordinal();
+		for (final Level level : categoryLevels.values()) {
+			lowest = Math.min(lowest, level.ordinal());
+		}
+		lowestEnabled = lowest;
 	}
 
-	private static void log(String severity, String category, String message) {
+	/**
+	 * Sets whether printed lines are also written to the AdvantageKit log.
+	 * <p>{@link #recordOutputs()} must be called from the main thread every loop while this is enabled,
+	 * NAR_Robot does so, see {@link common.core.misc.NAR_Robot#setLogRecording(boolean)}.
+	 * @param enabled Whether to record lines.
+	 */
+	public static void setRecording(boolean enabled) {
+		recording = enabled;
+	}
+
+	/**
+	 * Writes every line printed since the last call to the AdvantageKit log, batched into one
+	 * string array per category. Must be called from the main thread between AdvantageKit's loop
+	 * hooks, so the lines are stamped with the current cycle.
+	 */
+	public static void recordOutputs() {
+		String[] line;
+		int count = 0;
+		while (count++ < CAPACITY && (line = recordQueue.poll()) != null) {
+			ArrayList<String> batch = recordBatches.get(line[0]);
+			if (batch == null) {
+				batch = new ArrayList<String>();
+				recordBatches.put(line[0], batch);
+				recordKeys.put(line[0], "Log/" + line[0]);
+			}
+			batch.add(line[1]);
+		}
+		if (count == 1) return;
+		for (final Map.Entry<String, ArrayList<String>> batch : recordBatches.entrySet()) {
+			if (batch.getValue().isEmpty()) continue;
+			Logger.recordOutput(recordKeys.get(batch.getKey()), batch.getValue().toArray(EMPTY));
+			batch.getValue().clear();
+		}
+	}
+
+	/**
+	 * Returns how many messages were dropped because the ring was full.
+	 * @return Number of dropped messages since the program started.
+	 */
+	public static long getDroppedCount() {
+		return dropped.get();
+	}
+
+	private static void log(Level level, String category, String message) {
+		log(level, category, message, null);
+	}
+
+	private static void log(Level level, String category, String message, Object[] args) {
+		if (limiter.tryAcquire(level, category, message)) enqueue(level.label, category, message, args);
+	}
+
+	private static void enqueue(String severity, String category, String message, Object[] args) {
+		long position = head.get();
+		while (true) {
+			final int index = (int) (position & MASK);
+			final long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) break;
+				position = head.get();
+			} else if (difference < 0) {
+				// The consumer hasn't freed this slot yet, the ring is full
+				dropped.incrementAndGet();
+				return;
+			} else {
+				position = head.get();
+			}
+		}
+
+		final Record record = records[(int) (position & MASK)];
+		record.severity = severity;
+		record.category = category;
+		record.message = message;
+		record.args = args;
+		record.nanos = System.nanoTime();
+		sequences.set((int) (position & MASK), position + 1);
+		LockSupport.unpark(consumer);
+	}
+
+	private static void drainForever() {
+		while (true) {
+			if (!drain()) LockSupport.parkNanos(10_000_000);
+		}
+	}
+
+	/**
+	 * Prints every published record.
+	 * @return Whether anything was printed.
+	 */
+	private static synchronized boolean drain() {
+		boolean printed = false;
+		if (recording) fpgaOffsetUs = RobotController.getFPGATime() - System.nanoTime() / 1000;
+		while (true) {
+			final int index = (int) (tail & MASK);
+			if (sequences.get(index) != tail + 1) break;
+
+			final Record record = records[index];
+			final String severity = record.severity;
+			final String category = record.category;
+			final String message = format(record);
+			final long nanos = record.nanos;
+			record.severity = null;
+			record.category = null;
+			record.message = null;
+			record.args = null;
+			sequences.set(index, tail + CAPACITY);
+			tail++;
+
+			emit(severity, category, message, nanos);
+			printed = true;
+		}
+
+		final long droppedNow = dropped.get();
+		if (droppedNow != reportedDropped) {
+			emit(Level.UNUSUAL.label, "Log", String.format("%d messages dropped, the log buffer was full", droppedNow - reportedDropped), System.nanoTime());
+			reportedDropped = droppedNow;
+		}
+
+		final long nowNs = System.nanoTime();
+		if (nowNs - lastSummaryNs >= 1_000_000_000L) {
+			limiter.summarize();
+			lastSummaryNs = nowNs;
+		}
+		return printed;
+	}
+
+	/**
+	 * Prints a line, and queues it for the AdvantageKit log if recording.
+	 * Only called by the logging thread.
+	 */
+	static void emit(String severity, String category, String message, long nanos) {
 		System.out.println(String.format("[%s] [%s] %s", severity, category, message));
+		if (recording) {
+			final double seconds = (nanos / 1000 + fpgaOffsetUs) / 1e6;
+			// Lines are dropped if the main thread stops taking them
+			recordQueue.offer(new String[] {category, String.format("[%.3f] [%s] %s", seconds, severity, message)});
+		}
+	}
+
+	private static String format(Record record) {
+		if (record.args == null) return record.message;
+		try {
+			return String.format(record.message, record.args);
+		} catch (RuntimeException e) {
+			// A bad format string shouldn't take down the logging thread
+			return record.message + " " + Arrays.toString(record.args);
+		}
 	}
 }
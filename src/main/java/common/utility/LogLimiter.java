@@ -0,0 +1,124 @@
+package common.utility;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Rate limits repeated {@link Log} messages.
+ * <p>Every category and message pair gets a token bucket. Repeats beyond the bucket are counted
+ * instead of printed or reported, and the logging thread periodically prints how many were suppressed.
+ * <p>{@link #summarize()} is only called from the logging thread.
+ */
+class LogLimiter {
+
+    /**
+     * Rate limiting state for one message.
+     */
+    private static final class Bucket {
+        final Log.Level level;
+        final String category;
+        final String message;
+        double tokens = BURST;
+        long refilledNs;
+        int suppressed = 0;
+        long firstSuppressedNs;
+
+        Bucket(Log.Level level, String category, String message, long nowNs) {
+            this.level = level;
+            this.category = category;
+            this.message = message;
+            refilledNs = nowNs;
+        }
+
+        synchronized boolean tryAcquire(long nowNs) {
+            tokens = Math.min(BURST, tokens + (nowNs - refilledNs) * REFILL_PER_NS);
+            refilledNs = nowNs;
+            if (tokens >= 1) {
+                tokens--;
+                return true;
+            }
+            if (suppressed++ == 0) firstSuppressedNs = nowNs;
+            return false;
+        }
+
+        synchronized boolean isIdle(long nowNs) {
+            return suppressed == 0 && tokens + (nowNs - refilledNs) * REFILL_PER_NS >= BURST;
+        }
+    }
+
+    // Messages let through back to back before limiting starts
+    private static final double BURST = 5;
+    // Messages let through per second once limited
+    private static final double REFILL_PER_NS = 1 / 1e9;
+    private static final long SUMMARY_PERIOD_NS = 5_000_000_000L;
+    // Distinct messages tracked per category, anything past this shares one bucket
+    private static final int MAX_MESSAGES = 64;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Bucket>> buckets = new ConcurrentHashMap<String, ConcurrentHashMap<String, Bucket>>();
+    private final ConcurrentHashMap<String, Bucket> overflow = new ConcurrentHashMap<String, Bucket>();
+
+    /**
+     * Takes a token for a message.
+     * @param level Level of the message.
+     * @param category Category of the message.
+     * @param message Message, or its format string.
+     * @return Whether the message should be printed and reported.
+     */
+    boolean tryAcquire(Log.Level level, String category, String message) {
+        final long nowNs = System.nanoTime();
+        ConcurrentHashMap<String, Bucket> messages = buckets.get(category);
+        if (messages == null) {
+            buckets.putIfAbsent(category, new ConcurrentHashMap<String, Bucket>());
+            messages = buckets.get(category);
+        }
+        final String key = message == null ? "null" : message;
+        Bucket bucket = messages.get(key);
+        if (bucket == null) {
+            if (messages.size() >= MAX_MESSAGES) {
+                messages.values().removeIf(idle -> idle.isIdle(nowNs));
+            }
+            if (messages.size() >= MAX_MESSAGES) {
+                bucket = overflow.get(category);
+                if (bucket == null) {
+                    overflow.putIfAbsent(category, new Bucket(level, category, "(other messages)", nowNs));
+                    bucket = overflow.get(category);
+                }
+            } else {
+                messages.putIfAbsent(key, new Bucket(level, category, key, nowNs));
+                bucket = messages.get(key);
+            }
+        }
+        return bucket.tryAcquire(nowNs);
+    }
+
+    /**
+     * Prints a summary for every message which has been suppressed for a while.
+     * Summaries of fatal and recoverable errors are also sent to the driver station, without a stack trace.
+     */
+    void summarize() {
+        final long nowNs = System.nanoTime();
+        for (final ConcurrentHashMap<String, Bucket> messages : buckets.values()) {
+            for (final Bucket bucket : messages.values()) {
+                summarize(bucket, nowNs);
+            }
+        }
+        for (final Bucket bucket : overflow.values()) {
+            summarize(bucket, nowNs);
+        }
+    }
+
+    private static void summarize(Bucket bucket, long nowNs) {
+        final int suppressed;
+        synchronized (bucket) {
+            if (bucket.suppressed == 0 || nowNs - bucket.firstSuppressedNs < SUMMARY_PERIOD_NS) return;
+            suppressed = bucket.suppressed;
+            bucket.suppressed = 0;
+        }
+        final String summary = String.format("%d repeats suppressed: %s", suppressed, bucket.message);
+        Log.emit(bucket.level.label, bucket.category, summary, nowNs);
+        if (bucket.level.compareTo(Log.Level.RECOVERABLE) >= 0) {
+            DriverStation.reportError(summary, false);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package common.utility;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Per-key rate limits for AdvantageKit outputs.
+ * <p>Rates are set by key prefix, ie. {@code setRate("Swerve/*", 10)}, and the longest matching
+ * prefix wins. Call sites check {@link Key#shouldRecord()} before building and recording a value, so
+ * skipped samples cost one comparison and are never serialized. Keys without a rule record every time.
+ * <p>Timing uses {@link Logger#getTimestamp()}, so decimation is the same when a log is replayed.
+ * <p>Only use it for outputs. Inputs which code reads, like each motor's, must be processed every loop
+ * or replay would see older values than the robot did.
+ */
+public class LogPolicy {
+
+    /**
+     * A logged key and when it was last recorded.
+     */
+    public static class Key {
+        public final String name;
+        private int version = -1;
+        private long periodUs;
+        private long nextUs = 0;
+
+        private Key(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns whether the key should be recorded this time, and if so counts it as recorded.
+         * Should only be called from the main thread.
+         * @return Whether to record the key.
+         */
+        public boolean shouldRecord() {
+            if (version != LogPolicy.version) resolve();
+            if (periodUs == 0) return true;
+            if (periodUs < 0) return false;
+            final long nowUs = Logger.getTimestamp();
+            // A tenth of a period of slack so loop jitter doesn't push samples to the next loop
+            if (nowUs < nextUs - periodUs / 10) return false;
+            // Counted from now after a gap, so samples are always at least a period minus the slack apart
+            nextUs = Math.max(nextUs, nowUs) + periodUs;
+            return true;
+        }
+
+        private void resolve() {
+            version = LogPolicy.version;
+            String match = null;
+            for (final String prefix : rates.keySet()) {
+                if (name.startsWith(prefix) && (match == null || prefix.length() > match.length())) match = prefix;
+            }
+            final Double hz = match == null ? null : rates.get(match);
+            if (hz == null) periodUs = 0;
+            else if (hz <= 0) periodUs = -1;
+            else periodUs = Math.max(1, (long) (1e6 / hz));
+            nextUs = 0;
+        }
+    }
+
+    private static final Map<String, Double> rates = new ConcurrentHashMap<String, Double>();
+    private static final Map<String, Key> keys = new ConcurrentHashMap<String, Key>();
+    // Bumped whenever a rate changes so keys find their rule again
+    private static volatile int version = 0;
+
+    /**
+     * Returns the shared handle for a key, create it once and keep it rather than calling this every loop.
+     * @param name Full key, ie. "Motors/3".
+     * @return Handle to check before recording.
+     */
+    public static Key key(String name) {
+        return keys.computeIfAbsent(name, Key::new);
+    }
+
+    /**
+     * Limits how often keys under a prefix are recorded.
+     * @param prefix Key prefix, a trailing "*" is ignored.
+     * @param hz Maximum rate in samples per second, 0 or less to stop recording the keys.
+     */
+    public static synchronized void setRate(String prefix, double hz) {
+        rates.put(trim(prefix), hz);
+        version++;
+    }
+
+    /**
+     * Removes a prefix's limit.
+     * @param prefix Prefix passed to {@link #setRate(String, double)}.
+     */
+    public static synchronized void clearRate(String prefix) {
+        rates.remove(trim(prefix));
+        version++;
+    }
+
+    private static String trim(String prefix) {
+        return prefix.endsWith("*") ? prefix.substring(0, prefix.length() - 1) : prefix;
+    }
+}
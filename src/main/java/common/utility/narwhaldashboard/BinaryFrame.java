@@ -0,0 +1,85 @@
+package common.utility.narwhaldashboard;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes NarwhalDashboard updates in the binary format into one reused direct buffer.
+ * <p>A frame is one byte, 1 for a keyframe holding every value or 0 for only changed values, followed
+ * by entries of an unsigned short key ID, a type byte and the value. Doubles are 8 bytes, booleans 1 byte,
+ * strings an unsigned short length and UTF-8 bytes, and null has no value. Numbers are big endian, the
+ * default for a JavaScript DataView.
+ */
+final class BinaryFrame {
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_DOUBLE = 1;
+    static final byte TYPE_BOOLEAN = 2;
+    static final byte TYPE_STRING = 3;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Creates a frame writer.
+     * @param capacity Starting buffer size in bytes, doubled whenever a frame doesn't fit.
+     */
+    BinaryFrame(int capacity) {
+        buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Starts a new frame, discarding the last one.
+     * @param keyframe Whether the frame holds every value.
+     */
+    void begin(boolean keyframe) {
+        buffer.clear();
+        buffer.put((byte) (keyframe ? 1 : 0));
+    }
+
+    void putDouble(int id, double value) {
+        ensure(11);
+        buffer.putShort((short) id).put(TYPE_DOUBLE).putDouble(value);
+    }
+
+    void putBoolean(int id, boolean value) {
+        ensure(4);
+        buffer.putShort((short) id).put(TYPE_BOOLEAN).put((byte) (value ? 1 : 0));
+    }
+
+    /**
+     * Writes a value of any type, numbers are sent as doubles and other objects as their string.
+     * @param id Key ID.
+     * @param value Value to write.
+     */
+    void putObject(int id, Object value) {
+        if (value instanceof Number) {
+            putDouble(id, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            putBoolean(id, (Boolean) value);
+        } else if (value == null) {
+            ensure(3);
+            buffer.putShort((short) id).put(TYPE_NULL);
+        } else {
+            final byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            final int length = Math.min(bytes.length, 0xFFFF);
+            ensure(5 + length);
+            buffer.putShort((short) id).put(TYPE_STRING).putShort((short) length).put(bytes, 0, length);
+        }
+    }
+
+    /**
+     * Finishes the frame.
+     * @return The buffer, ready to send. Only valid until the next {@link #begin(boolean)}.
+     */
+    ByteBuffer finish() {
+        buffer.flip();
+        return buffer;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) return;
+        final ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+}
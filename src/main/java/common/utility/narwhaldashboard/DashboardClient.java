@@ -0,0 +1,100 @@
+package common.utility.narwhaldashboard;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * One connection to NarwhalDashboard and what it asked to receive.
+ * <p>Settings are requested from the WebSocket thread and applied by the background thread publishing
+ * updates, which is the only thread using everything else.
+ */
+final class DashboardClient {
+    // Every value in every update, what clients expect before picking a format
+    static final int FORMAT_JSON = 0;
+    // Only changed values, with a full update every keyframe
+    static final int FORMAT_JSON_DELTA = 1;
+    // Only changed values, binary frames marking keyframes
+    static final int FORMAT_BINARY = 2;
+
+    final WebSocket conn;
+
+    // Format the client asked for, -1 once applied
+    private final AtomicInteger requestedFormat = new AtomicInteger(-1);
+    // Null to receive every key
+    private volatile HashSet<String> subscriptions = null;
+    private volatile boolean subscriptionsChanged = false;
+    // Updates per frame sent, 1 sends every update
+    volatile int divider = 1;
+
+    boolean binary = false;
+    boolean delta = false;
+    boolean keyIdsRequested = false;
+    boolean keyframeRequested = true;
+
+    // Baseline of the last frame actually sent, for delta frames
+    int sentVersion = -1;
+    Object[] sentValues = new Object[0];
+    double[] sentNumbers = new double[0];
+    boolean[] subscribed = new boolean[0];
+    boolean[] changed = new boolean[0];
+    int updatesSinceKeyframe = 0;
+    int updates = 0;
+    long dropped = 0;
+
+    DashboardClient(WebSocket conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Limits which keys the client receives.
+     * @param keys Keys to receive, or null for every key.
+     */
+    void subscribe(String[] keys) {
+        subscriptions = keys == null ? null : new HashSet<String>(Arrays.asList(keys));
+        subscriptionsChanged = true;
+    }
+
+    /**
+     * Switches the update format on the next update.
+     * @param format One of the FORMAT constants.
+     */
+    void requestFormat(int format) {
+        requestedFormat.set(format);
+    }
+
+    /**
+     * Applies a requested format, resizes the baseline when the keys change and applies new subscriptions,
+     * requesting a keyframe if any happened.
+     * @param version Version of the snapshot keys.
+     * @param keys Snapshot keys.
+     */
+    void resolve(int version, List<String> keys) {
+        final int format = requestedFormat.getAndSet(-1);
+        if (format >= 0) {
+            //Key IDs and a keyframe are sent first
+            binary = format == FORMAT_BINARY;
+            delta = format != FORMAT_JSON;
+            keyIdsRequested = binary;
+            keyframeRequested = true;
+        }
+        if (sentVersion == version && !subscriptionsChanged) return;
+        if (sentVersion != version) {
+            sentVersion = version;
+            sentValues = new Object[keys.size()];
+            sentNumbers = new double[keys.size()];
+            changed = new boolean[keys.size()];
+            keyIdsRequested = binary;
+        }
+        subscriptionsChanged = false;
+        final HashSet<String> subscriptions = this.subscriptions;
+        subscribed = new boolean[keys.size()];
+        for (int i = 0; i < subscribed.length; i++) {
+            subscribed[i] = subscriptions == null || subscriptions.contains(keys.get(i));
+        }
+        keyframeRequested = true;
+    }
+}
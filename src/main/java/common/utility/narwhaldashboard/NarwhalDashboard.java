@@ -1,12 +1,18 @@
 package common.utility.narwhaldashboard;
 
+import java.lang.reflect.Array;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
 import java.util.function.Supplier;
 
 import org.java_websocket.WebSocket;
@@ -16,30 +22,64 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import common.core.misc.NAR_Robot;
+import common.core.misc.NAR_Robot.Priority;
 import common.utility.Log;
 import edu.wpi.first.util.function.BooleanConsumer;
 
 /**
  * Team 3128's {@link WebSocketServer} class, used to log robot data and select autos
+ * <p>Any number of clients can connect. Each one picks its own format, keys and update rate, and
+ * a client whose socket is still sending the last frame has its next frames dropped instead of queued.
  * @since Deep Space 2019
  * @author Mason Lam
  */
 public class NarwhalDashboard extends WebSocketServer implements AutoCloseable {
     private final HashMap<String, List<Object>> initMap = new HashMap<String, List<Object>>();
     private final HashMap<String, Supplier<Object>> updateMap = new HashMap<String, Supplier<Object>>();
+    private final HashMap<String, DoubleSupplier> doubleUpdateMap = new HashMap<String, DoubleSupplier>();
+    private final HashMap<String, BooleanSupplier> booleanUpdateMap = new HashMap<String, BooleanSupplier>();
     private final HashMap<String, Consumer<String[]>> actionMap = new HashMap<String, Consumer<String[]>>();
+    private final HashMap<String, BiConsumer<DashboardClient, String[]>> clientActionMap = new HashMap<String, BiConsumer<DashboardClient, String[]>>();
 
     private final HashMap<String, BooleanConsumer> buttons = new HashMap<String, BooleanConsumer>();
 
     private final ArrayList<String> autoPrograms = new ArrayList<String>();
     private String selectedAuto;
 
-    private WebSocket conn;
+    // Copy of the update maps taken on the main thread and published on the background thread,
+    // a key's index is its ID in the binary format
+    private final ArrayList<String> snapshotKeys = new ArrayList<String>();
+    private Object[] snapshotSuppliers = new Object[0];
+    private byte[] snapshotKinds = new byte[0];
+    private Object[] snapshotValues = new Object[0];
+    // Doubles and booleans are stored unboxed, booleans as 0 or 1
+    private double[] snapshotNumbers = new double[0];
+    private boolean updatesChanged = false;
+    // Bumped whenever the snapshot keys are rebuilt
+    private int snapshotVersion = 0;
+
+    // Only used on the background thread, shared by every client since frames are copied when sent
+    private Object[] jsonValues = new Object[0];
+    private final BinaryFrame binaryFrame = new BinaryFrame(4096);
+
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_DOUBLE = 1;
+    private static final byte KIND_BOOLEAN = 2;
+
+    // Updates between full updates, so a client which missed a frame catches up within a second
+    private static final int KEYFRAME_INTERVAL = 50;
+    private static final double UPDATE_PERIOD = 0.02;
+
+    private final CopyOnWriteArrayList<DashboardClient> clients = new CopyOnWriteArrayList<DashboardClient>();
 
     private static NarwhalDashboard instance;
 
     private static int PORT = 5805;
 
+    // Stand in for a robot's updates, numbers, flags and strings
+    private static final List<String> WARM_UP_KEYS = Arrays.asList("x", "y", "heading", "hasTarget", "intake", "selectedAuto");
+    private static final Object[] WARM_UP_VALUES = {1.25, -3.5, 179.9, true, false, "auto"};
+
     public static synchronized NarwhalDashboard getInstance() {
         if (instance == null) {
             startServer();
@@ -80,7 +120,9 @@ public class NarwhalDashboard extends WebSocketServer implements AutoCloseable {
      */
     private NarwhalDashboard(int port) throws UnknownHostException {
         super(new InetSocketAddress(port));
-        NAR_Robot.addPeriodic(this::update, 0.02);
+        NAR_Robot.addBackgroundPeriodic("NarwhalDashboard", this::snapshot, this::publish, UPDATE_PERIOD)
+            .withPriority(Priority.LOW, 0.001);
+        NAR_Robot.addWarmUp("NarwhalDashboard", ()-> toJSON(WARM_UP_KEYS, WARM_UP_VALUES));
     }
 
     /**
@@ -98,6 +140,15 @@ public class NarwhalDashboard extends WebSocketServer implements AutoCloseable {
         addUpdate("selectedAuto", ()-> selectedAuto);
         addAction("selectAuto", autoName -> selectAuto(autoName[0]));
         addAction("button", button -> updateButton(button[0], button[1].equals("true")));
+        //logLevel:LEVEL sets the default level, logLevel:category:LEVEL sets one category's
+        addAction("logLevel", level -> setLogLevel(level));
+        //format:delta only sends the sender changed values, format:binary does too in the binary format,
+        //format:json switches back to every value in every update
+        clientActionMap.put("format", (client, format) -> setFormat(client, format[0]));
+        //subscribe:key1:key2 only sends the sender those keys, subscribe:* sends every key
+        clientActionMap.put("subscribe", (client, keys) -> subscribe(client, keys));
+        //rate:hz limits how often the sender is sent updates
+        clientActionMap.put("rate", (client, hz) -> setRate(client, hz[0]));
     }
 
     /**
@@ -137,7 +188,9 @@ public class NarwhalDashboard extends WebSocketServer implements AutoCloseable {
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         Log.info("NarwhalDashboard", conn.getRemoteSocketAddress().getHostName() + " has opened a connection.");
 
-        this.conn = conn;
+        final DashboardClient client = new DashboardClient(conn);
+        conn.setAttachment(client);
+        clients.add(client);
 
         final JSONObject obj = new JSONObject();
         //Sends every object to NarwhalDashboard on initialize
@@ -166,9 +219,37 @@ public class NarwhalDashboard extends WebSocketServer implements AutoCloseable {
      * @param obj Object added
      */
     public void addUpdate(String key, Supplier<Object> obj) {
+        removeUpdate(key);
         updateMap.put(key, obj);
     }
 
+    /**
+     * Sends a number to the web server every update without boxing it
+     * @param key Name of the number
+     * @param number Supplies the number
+     */
+    public void addDoubleUpdate(String key, DoubleSupplier number) {
+        removeUpdate(key);
+        doubleUpdateMap.put(key, number);
+    }
+
+    /**
+     * Sends a flag to the web server every update without boxing it
+     * @param key Name of the flag
+     * @param flag Supplies the flag
+     */
+    public void addBooleanUpdate(String key, BooleanSupplier flag) {
+        removeUpdate(key);
+        booleanUpdateMap.put(key, flag);
+    }
+
+    private void removeUpdate(String key) {
+        updateMap.remove(key);
+        doubleUpdateMap.remove(key);
+        booleanUpdateMap.remove(key);
+        updatesChanged = true;
+    }
+
     /**
      * Sends a message to console.log on Narwhal Dashboard.
      * @param message Message to be logged on dashboard
@@ -177,24 +258,264 @@ public class NarwhalDashboard extends WebSocketServer implements AutoCloseable {
     public void sendMessage(String message) {
         final JSONObject obj = new JSONObject();
         obj.put("Message", message);
-        conn.send(obj.toJSONString());
+        final String json = obj.toJSONString();
+        for (final DashboardClient client : clients) {
+            if (client.conn.isOpen()) client.conn.send(json);
+        }
     }
 
     /**
-     * Updates NarwhalDashboard sending data to the web server
+     * Reads every update supplier, runs on the main thread
+     * @return Whether there is a client to send the values to
      */
-    @SuppressWarnings("unchecked")
-    private void update() {
-        if (conn == null) return;
-
-        if (conn.isOpen()) {
-            //Sends data as a JSON
-            final JSONObject obj = new JSONObject();
+    private boolean snapshot() {
+        if (clients.isEmpty()) return false;
+
+        if (updatesChanged) {
+            final int size = updateMap.size() + doubleUpdateMap.size() + booleanUpdateMap.size();
+            snapshotKeys.clear();
+            snapshotSuppliers = new Object[size];
+            snapshotKinds = new byte[size];
             for (final String key : updateMap.keySet()) {
-                obj.put(key, updateMap.get(key).get());
+                addSnapshotKey(key, updateMap.get(key), KIND_OBJECT);
+            }
+            for (final String key : doubleUpdateMap.keySet()) {
+                addSnapshotKey(key, doubleUpdateMap.get(key), KIND_DOUBLE);
+            }
+            for (final String key : booleanUpdateMap.keySet()) {
+                addSnapshotKey(key, booleanUpdateMap.get(key), KIND_BOOLEAN);
+            }
+            snapshotValues = new Object[size];
+            snapshotNumbers = new double[size];
+            snapshotVersion++;
+            updatesChanged = false;
+        }
+
+        for (int i = 0; i < snapshotKinds.length; i++) {
+            switch (snapshotKinds[i]) {
+                case KIND_OBJECT:
+                    snapshotValues[i] = ((Supplier<?>) snapshotSuppliers[i]).get();
+                    break;
+                case KIND_DOUBLE:
+                    snapshotNumbers[i] = ((DoubleSupplier) snapshotSuppliers[i]).getAsDouble();
+                    break;
+                case KIND_BOOLEAN:
+                    snapshotNumbers[i] = ((BooleanSupplier) snapshotSuppliers[i]).getAsBoolean() ? 1 : 0;
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private void addSnapshotKey(String key, Object supplier, byte kind) {
+        snapshotSuppliers[snapshotKeys.size()] = supplier;
+        snapshotKinds[snapshotKeys.size()] = kind;
+        snapshotKeys.add(key);
+    }
+
+    /**
+     * Updates NarwhalDashboard sending each client the values which changed in the last snapshot,
+     * runs on the background thread
+     */
+    private void publish() {
+        if (jsonValues.length != snapshotKinds.length) jsonValues = new Object[snapshotKinds.length];
+        for (final DashboardClient client : clients) {
+            if (client.conn.isOpen()) publish(client);
+        }
+    }
+
+    /**
+     * Sends one client the subscribed values which changed since the last frame it was sent
+     * @param client The client
+     */
+    private void publish(DashboardClient client) {
+        client.resolve(snapshotVersion, snapshotKeys);
+        client.updatesSinceKeyframe++;
+        if (client.updates++ % client.divider != 0) return;
+
+        //The socket hasn't finished sending the last frame, drop this one instead of queueing it
+        //The baseline isn't advanced, so the next frame carries everything this one would have
+        if (client.conn.hasBufferedData()) {
+            if (client.dropped++ % KEYFRAME_INTERVAL == 0) {
+                Log.unusual("NarwhalDashboard", "%s is falling behind, %d frames dropped",
+                    client.conn.getRemoteSocketAddress(), client.dropped);
+            }
+            return;
+        }
+
+        final boolean keyframe = !client.delta || client.keyframeRequested || client.updatesSinceKeyframe >= KEYFRAME_INTERVAL;
+        final boolean[] changed = client.changed;
+        boolean anyChanged = false;
+        for (int i = 0; i < changed.length; i++) {
+            if (!client.subscribed[i]) {
+                changed[i] = false;
+            } else if (snapshotKinds[i] == KIND_OBJECT) {
+                changed[i] = keyframe || !canCompare(snapshotValues[i]) || !Objects.deepEquals(snapshotValues[i], client.sentValues[i]);
+                if (changed[i]) client.sentValues[i] = baseline(snapshotValues[i]);
+            } else {
+                changed[i] = keyframe || Double.doubleToLongBits(snapshotNumbers[i]) != Double.doubleToLongBits(client.sentNumbers[i]);
+                if (changed[i]) client.sentNumbers[i] = snapshotNumbers[i];
             }
-            conn.send(obj.toJSONString());
+            anyChanged |= changed[i];
         }
+        if (keyframe) {
+            client.keyframeRequested = false;
+            client.updatesSinceKeyframe = 0;
+        }
+        //Nothing to tell the client
+        if (!anyChanged) return;
+
+        if (client.binary) {
+            if (client.keyIdsRequested) {
+                client.conn.send(keyIdsJSON(snapshotKeys));
+                client.keyIdsRequested = false;
+            }
+            binaryFrame.begin(keyframe);
+            for (int i = 0; i < changed.length; i++) {
+                if (!changed[i]) continue;
+                switch (snapshotKinds[i]) {
+                    case KIND_OBJECT:
+                        binaryFrame.putObject(i, snapshotValues[i]);
+                        break;
+                    case KIND_DOUBLE:
+                        binaryFrame.putDouble(i, snapshotNumbers[i]);
+                        break;
+                    case KIND_BOOLEAN:
+                        binaryFrame.putBoolean(i, snapshotNumbers[i] != 0);
+                        break;
+                }
+            }
+            //The frame is copied before send returns, so the buffer can be reused next update
+            client.conn.send(binaryFrame.finish());
+            return;
+        }
+
+        for (int i = 0; i < changed.length; i++) {
+            if (!changed[i]) continue;
+            switch (snapshotKinds[i]) {
+                case KIND_OBJECT:
+                    jsonValues[i] = snapshotValues[i];
+                    break;
+                case KIND_DOUBLE:
+                    jsonValues[i] = snapshotNumbers[i];
+                    break;
+                case KIND_BOOLEAN:
+                    jsonValues[i] = snapshotNumbers[i] != 0;
+                    break;
+            }
+        }
+        client.conn.send(toJSON(snapshotKeys, jsonValues, changed));
+    }
+
+    /**
+     * Returns whether a value can be compared against the last one sent, which holds for immutable values
+     * and arrays, compared against a copy, see {@link #baseline(Object)}. Any other object might be mutated
+     * in place by its supplier and is sent every update.
+     * @param value An update value
+     * @return Whether comparing the value against the last one sent is reliable
+     */
+    private static boolean canCompare(Object value) {
+        return value == null || value.getClass().isArray() || value instanceof String || value instanceof Boolean
+            || value instanceof Double || value instanceof Integer || value instanceof Long || value instanceof Float
+            || value instanceof Short || value instanceof Byte || value instanceof Character || value instanceof Enum;
+    }
+
+    /**
+     * Copies an array so a supplier mutating it in place can't also change the last value sent
+     * @param value An update value
+     * @return A deep copy of an array, or the value itself
+     */
+    private static Object baseline(Object value) {
+        if (value == null || !value.getClass().isArray()) return value;
+        final int length = Array.getLength(value);
+        final Class<?> type = value.getClass().getComponentType();
+        final Object copy = Array.newInstance(type, length);
+        if (type.isPrimitive()) {
+            System.arraycopy(value, 0, copy, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) Array.set(copy, i, baseline(Array.get(value, i)));
+        }
+        return copy;
+    }
+
+    /**
+     * Serializes the binary format's key IDs, each key's ID is its index
+     * @param keys Name of each value
+     * @return The JSON string
+     */
+    @SuppressWarnings("unchecked")
+    static String keyIdsJSON(List<String> keys) {
+        final JSONArray arr = new JSONArray();
+        arr.addAll(keys);
+        final JSONObject obj = new JSONObject();
+        obj.put("keyIds", arr);
+        return obj.toJSONString();
+    }
+
+    /**
+     * Switches a client's update format
+     * @param client The client
+     * @param format "json", "delta" or "binary"
+     */
+    private void setFormat(DashboardClient client, String format) {
+        final int id;
+        if (format.equals("json")) id = DashboardClient.FORMAT_JSON;
+        else if (format.equals("delta")) id = DashboardClient.FORMAT_JSON_DELTA;
+        else if (format.equals("binary")) id = DashboardClient.FORMAT_BINARY;
+        else {
+            Log.recoverable("NarwhalDashboard", "Update format \"" + format + "\" does not exist.");
+            return;
+        }
+        client.requestFormat(id);
+    }
+
+    /**
+     * Changes which keys a client is sent
+     * @param client The client
+     * @param keys Keys to send, none or "*" for every key
+     */
+    private void subscribe(DashboardClient client, String[] keys) {
+        client.subscribe(keys.length == 0 || keys[0].equals("*") ? null : keys);
+    }
+
+    /**
+     * Changes how often a client is sent updates, at most once per update
+     * @param client The client
+     * @param hz Updates per second
+     */
+    private void setRate(DashboardClient client, String hz) {
+        try {
+            final double rate = Double.parseDouble(hz);
+            client.divider = rate <= 0 ? 1 : Math.max(1, (int) Math.round(1 / (UPDATE_PERIOD * rate)));
+        } catch (NumberFormatException e) {
+            Log.recoverable("NarwhalDashboard", "Update rate \"" + hz + "\" is not a number.");
+        }
+    }
+
+    /**
+     * Serializes update values into the JSON sent to the web server
+     * @param keys Name of each value
+     * @param values Values in the same order as keys
+     * @return The JSON string
+     */
+    static String toJSON(List<String> keys, Object[] values) {
+        return toJSON(keys, values, null);
+    }
+
+    /**
+     * Serializes some update values into the JSON sent to the web server
+     * @param keys Name of each value
+     * @param values Values in the same order as keys
+     * @param include Which values to send, or null to send all of them
+     * @return The JSON string
+     */
+    @SuppressWarnings("unchecked")
+    static String toJSON(List<String> keys, Object[] values, boolean[] include) {
+        final JSONObject obj = new JSONObject();
+        for (int i = 0; i < values.length; i++) {
+            if (include == null || include[i]) obj.put(keys.get(i), values[i]);
+        }
+        return obj.toJSONString();
     }
 
     /**
@@ -222,10 +543,18 @@ public class NarwhalDashboard extends WebSocketServer implements AutoCloseable {
 	 */
     @Override
     public void onMessage(WebSocket conn, String message) {
-        Log.info("NarwhalDashboard", message);
+        Log.debug("NarwhalDashboard", message);
         //Message format category + key + value or category + value, example auto:"exampleAuto"
         final String[] parts = message.split(":");
 
+        //Actions which only change the sender's updates
+        final BiConsumer<DashboardClient, String[]> clientAction = clientActionMap.get(parts[0]);
+        if (clientAction != null) {
+            final DashboardClient client = conn.getAttachment();
+            if (client != null) clientAction.accept(client, Arrays.copyOfRange(parts, 1, parts.length));
+            return;
+        }
+
         if (!actionMap.containsKey(parts[0])) return;
 
         final Consumer<String[]> action = actionMap.get(parts[0]);
@@ -251,6 +580,25 @@ public class NarwhalDashboard extends WebSocketServer implements AutoCloseable {
         Log.recoverable("NarwhalDashboard", "Auto program \"" + autoName + "\" does not exist.");
     }
 
+    /**
+     * Changes a logging level
+     * @param args Level, or category and level
+     */
+    private void setLogLevel(String[] args) {
+        if (args.length == 0) return;
+        final String levelName = args[args.length - 1].toUpperCase();
+        final Log.Level level;
+        try {
+            level = Log.Level.valueOf(levelName);
+        } catch (IllegalArgumentException e) {
+            Log.recoverable("NarwhalDashboard", "Log level \"" + levelName + "\" does not exist.");
+            return;
+        }
+        if (args.length == 1) Log.setLevel(level);
+        else Log.setLevel(args[0], level);
+        Log.info("NarwhalDashboard", "Log level " + (args.length == 1 ? "" : "of " + args[0] + " ") + "set to " + level);
+    }
+
     /**
      * Changes a button state
      * @param key Name of the button
@@ -273,7 +621,10 @@ public class NarwhalDashboard extends WebSocketServer implements AutoCloseable {
     public void onStart() {}
 
     @Override
-    public void onClose(WebSocket conn, int code, String reason, boolean remote) {}
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        final DashboardClient client = conn.getAttachment();
+        clients.remove(client);
+    }
 
     /**
      * Closes the dashboard.
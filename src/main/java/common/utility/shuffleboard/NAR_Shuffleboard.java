@@ -1,5 +1,6 @@
 package common.utility.shuffleboard;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.DoubleSupplier;
@@ -8,6 +9,7 @@ import java.util.function.Supplier;
 import com.ctre.phoenix.sensors.WPI_PigeonIMU;
 
 import common.core.misc.NAR_Robot;
+import common.core.misc.NAR_Robot.Priority;
 import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.networktables.GenericEntry;
 import edu.wpi.first.util.sendable.Sendable;
@@ -27,7 +29,8 @@ import edu.wpi.first.wpilibj2.command.SubsystemBase;
 public class NAR_Shuffleboard {
 
     static {
-        NAR_Robot.addPeriodic(NAR_Shuffleboard::update, 0.02);
+        NAR_Robot.addBackgroundPeriodic("NAR_Shuffleboard", NAR_Shuffleboard::snapshot, NAR_Shuffleboard::publish, 0.02)
+            .withPriority(Priority.LOW, 0.001);
     }
 
     private NAR_Shuffleboard() {}
@@ -40,6 +43,7 @@ public class NAR_Shuffleboard {
         private SimpleWidget m_widget;
         private Supplier<Object> m_supply;
         private GenericEntry m_entry;
+        private Object m_value;
         
         /**
          * Creates a new widgetInfo
@@ -53,9 +57,20 @@ public class NAR_Shuffleboard {
             m_entry = widget.getEntry();
         }
 
-        public void update() {
+        /**
+         * Reads the supplier, runs on the main thread
+         */
+        public void snapshot() {
             if(m_supply == null) return;
-            m_entry.setValue(m_supply.get());
+            m_value = m_supply.get();
+        }
+
+        /**
+         * Sends the last snapshot to the entry, runs on the background thread
+         */
+        public void publish() {
+            if(m_value == null) return;
+            m_entry.setValue(m_value);
         }
     }
 
@@ -65,6 +80,10 @@ public class NAR_Shuffleboard {
     private static final HashMap<String, HashMap<String, widgetInfo>> tabs = new HashMap<String, HashMap<String,widgetInfo>>();
     private static final HashMap<String, boolean[][]> widgetPositions = new HashMap<String, boolean[][]>();
 
+    // Widgets published by the background thread, rebuilt on the main thread when a widget gains a supplier
+    private static widgetInfo[] publishedWidgets = new widgetInfo[0];
+    private static boolean widgetsChanged = false;
+
     private static SimpleWidget[] autoWidgets;
     private static String[] autoNames;
     private static String selectedAutoName;
@@ -162,11 +181,15 @@ public class NAR_Shuffleboard {
             fillEntryPositions(x,y,width,height, tabName);
         }
         if(tabs.get(tabName).containsKey(name)) {
-            tabs.get(tabName).get(name).m_supply = supply;
-            return tabs.get(tabName).get(name).m_widget;
+            final widgetInfo info = tabs.get(tabName).get(name);
+            // Already published widgets read the new supplier on their next snapshot
+            if (info.m_supply == null) widgetsChanged = true;
+            info.m_supply = supply;
+            return info.m_widget;
         }
         SimpleWidget widget = Shuffleboard.getTab(tabName).add(name,supply.get()).withPosition(x, y).withSize(width, height);
         tabs.get(tabName).put(name, new widgetInfo(widget,supply));
+        widgetsChanged = true;
         return widget;
     }
 
@@ -361,13 +384,39 @@ public class NAR_Shuffleboard {
     }
 
     /**
-     * Updates every widget
+     * Does nothing, widgets are updated by the background tier on their own
+     * @deprecated Kept so existing callers compile, remove the call.
      */
-    public static void update() {
-        for(String i : tabs.keySet()){
-            for(String j : tabs.get(i).keySet()){
-                tabs.get(i).get(j).update();
+    @Deprecated
+    public static void update() {}
+
+    /**
+     * Reads every widget supplier, runs on the main thread
+     * @return Whether there are widgets to publish
+     */
+    private static boolean snapshot() {
+        if (widgetsChanged) {
+            final ArrayList<widgetInfo> widgets = new ArrayList<widgetInfo>();
+            for (final HashMap<String, widgetInfo> tab : tabs.values()) {
+                for (final widgetInfo widget : tab.values()) {
+                    if (widget.m_supply != null) widgets.add(widget);
+                }
             }
+            publishedWidgets = widgets.toArray(new widgetInfo[0]);
+            widgetsChanged = false;
+        }
+        for (final widgetInfo widget : publishedWidgets) {
+            widget.snapshot();
+        }
+        return publishedWidgets.length > 0;
+    }
+
+    /**
+     * Sends the last snapshot of every widget, runs on the background thread
+     */
+    private static void publish() {
+        for (final widgetInfo widget : publishedWidgets) {
+            widget.publish();
         }
     }
 